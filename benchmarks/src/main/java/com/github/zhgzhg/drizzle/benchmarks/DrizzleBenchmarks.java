@@ -0,0 +1,39 @@
+package com.github.zhgzhg.drizzle.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+public class DrizzleBenchmarks {
+
+    public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException, IOException {
+        CommandLineOptions cliOptions = new CommandLineOptions(args);
+        if (cliOptions.shouldHelp()) {
+            cliOptions.showHelp();
+            return;
+        }
+        if (cliOptions.shouldList()) {
+            new Runner(cliOptions).list();
+            return;
+        }
+
+        // JSON results by default, so they can be collected for trend tracking
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(cliOptions);
+        if (!cliOptions.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cliOptions.getResult().hasValue()) {
+            options.result(DEFAULT_RESULT_FILE);
+        }
+
+        new Runner(options.build()).run();
+    }
+}
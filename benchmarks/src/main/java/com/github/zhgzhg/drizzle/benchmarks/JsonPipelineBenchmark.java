@@ -0,0 +1,36 @@
+package com.github.zhgzhg.drizzle.benchmarks;
+
+import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
+import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonPipelineBenchmark {
+
+    @Benchmark
+    public String toJSON(SketchInput input) {
+        return ProjectSettings.toJSON(input.projectSettings);
+    }
+
+    @Benchmark
+    public ProjectSettings fromJSON(SketchInput input) {
+        return ProjectSettings.fromJSON(input.projectSettingsJson, LogProxy.silent());
+    }
+
+    @Benchmark
+    public String revParse(SketchInput input) {
+        return input.projectSettings.toString();
+    }
+}
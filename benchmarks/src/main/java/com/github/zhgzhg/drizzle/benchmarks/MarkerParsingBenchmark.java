@@ -0,0 +1,64 @@
+package com.github.zhgzhg.drizzle.benchmarks;
+
+import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
+import com.github.zhgzhg.drizzle.utils.source.SourceExtractor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkerParsingBenchmark {
+
+    @Benchmark
+    public List<String> extractAllCommentsFromSource(SketchInput input) throws IOException {
+        return input.sourceExtractor.extractAllCommentsFromSource(input.source);
+    }
+
+    @Benchmark
+    public SourceExtractor.BoardManager dependentBoardManager(SketchInput input) {
+        return input.sourceExtractor.dependentBoardManagerFromMainSketchSource(input.source);
+    }
+
+    @Benchmark
+    public SourceExtractor.Board dependentBoard(SketchInput input) {
+        return input.sourceExtractor.dependentBoardFromMainSketchSource(input.source);
+    }
+
+    @Benchmark
+    public List<SourceExtractor.BoardSettings> dependentBoardClickableSettings(SketchInput input) {
+        return input.sourceExtractor.dependentBoardClickableSettingsFromMainSketchSource(input.source);
+    }
+
+    @Benchmark
+    public List<SourceExtractor.Preferences> dependentPreferences(SketchInput input) {
+        return input.sourceExtractor.dependentPreferencesFromMainSketchSource(input.source);
+    }
+
+    @Benchmark
+    public Map<String, SourceExtractor.DependentLibrary> dependentLibs(SketchInput input) {
+        return input.sourceExtractor.dependentLibsFromMainSketchSource(input.source);
+    }
+
+    @Benchmark
+    public List<SourceExtractor.ArduinoTool> arduinoTools(SketchInput input) {
+        return input.sourceExtractor.arduinoToolsFromMainSketchSource(input.source);
+    }
+
+    @Benchmark
+    public ProjectSettings projectSettingsFromSource(SketchInput input) {
+        return ProjectSettings.fromSource(input.sourceExtractor, input.source);
+    }
+}
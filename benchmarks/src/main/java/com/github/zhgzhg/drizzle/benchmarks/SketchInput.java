@@ -0,0 +1,78 @@
+package com.github.zhgzhg.drizzle.benchmarks;
+
+import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
+import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+import com.github.zhgzhg.drizzle.utils.source.SourceExtractor;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+@State(Scope.Benchmark)
+public class SketchInput {
+
+    @Param({ "100", "2000", "50000" })
+    public int sketchLines;
+
+    // the share of the lines being comments
+    @Param({ "0.1", "0.5" })
+    public double commentDensity;
+
+    public String source;
+    public SourceExtractor sourceExtractor;
+    public ProjectSettings projectSettings;
+    public String projectSettingsJson;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        this.source = generateSketch(this.sketchLines, this.commentDensity, 42);
+        this.sourceExtractor = new SourceExtractor(null, LogProxy.silent());
+        this.projectSettings = ProjectSettings.fromSource(this.sourceExtractor, this.source);
+        this.projectSettingsJson = ProjectSettings.toJSON(this.projectSettings);
+    }
+
+    public static String generateSketch(int lines, double commentDensity, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(lines * 40);
+
+        sb.append("/*\n")
+                .append(" * @BoardManager esp8266::^2.6.3::https://arduino.esp8266.com/stable/package_esp8266com_index.json\n")
+                .append(" * @Board esp8266::NodeMCU 1.0 (ESP-12E Module)\n")
+                .append(" * @BoardSettings esp8266::NodeMCU 1.0 (ESP-12E Module)::Flash Frequency->40MHz||Flash Mode->QIO\n");
+        for (int i = 0; i < 8; ++i) {
+            sb.append(" * @DependsOn Library_").append(i).append("::^1.").append(i).append(".0\n");
+        }
+        sb.append(" * @Preferences *::*::key1=val1||key2=val2\n")
+                .append(" * @ArduinoTool Drizzle::(<=0.16.7)::https://example.com/drizzle.zip\n")
+                .append(" */\n\n");
+
+        for (int i = 0; i < lines; ++i) {
+            if (random.nextDouble() < commentDensity) {
+                if (random.nextBoolean()) {
+                    sb.append("  // line ").append(i).append(" explains what the next statement does\n");
+                } else {
+                    sb.append("  /* block ").append(i).append(" with a * and a / inside */\n");
+                }
+            } else {
+                switch (random.nextInt(4)) {
+                    case 0:
+                        sb.append("  Serial.println(\"value // not a comment ").append(i).append("\");\n");
+                        break;
+                    case 1:
+                        sb.append("void function").append(i).append("(int a) {\n");
+                        break;
+                    case 2:
+                        sb.append("}\n");
+                        break;
+                    default:
+                        sb.append("  int v").append(i).append(" = analogRead(A0) * ").append(random.nextInt(1000)).append(";\n");
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+}
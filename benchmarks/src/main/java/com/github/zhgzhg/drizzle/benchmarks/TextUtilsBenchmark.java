@@ -0,0 +1,59 @@
+package com.github.zhgzhg.drizzle.benchmarks;
+
+import com.github.zhgzhg.drizzle.utils.text.TextUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TextUtilsBenchmark {
+
+    @Param({ "", "   ", "esp8266", "  NodeMCU 1.0 (ESP-12E Module)  " })
+    public String text;
+
+    public String other = "https://arduino.esp8266.com/stable/package_esp8266com_index.json";
+
+    @Benchmark
+    public boolean isNullOrBlank() {
+        return TextUtils.isNullOrBlank(text);
+    }
+
+    @Benchmark
+    public boolean isNotNullOrBlank() {
+        return TextUtils.isNotNullOrBlank(text);
+    }
+
+    @Benchmark
+    public boolean allNotBlank() {
+        return TextUtils.allNotBlank(text, other, text);
+    }
+
+    @Benchmark
+    public boolean allNullOrBlank() {
+        return TextUtils.allNullOrBlank(text, other);
+    }
+
+    @Benchmark
+    public String returnAnyNotBlank() {
+        return TextUtils.returnAnyNotBlank(text, "*");
+    }
+
+    @Benchmark
+    public String trim() {
+        return TextUtils.trim(text, " \"");
+    }
+}
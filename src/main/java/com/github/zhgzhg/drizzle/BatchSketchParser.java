@@ -0,0 +1,200 @@
+package com.github.zhgzhg.drizzle;
+
+import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
+import com.github.zhgzhg.drizzle.utils.json.ProjectSettingsTypeAdapter;
+import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+import com.github.zhgzhg.drizzle.utils.source.SourceExtractor;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+
+public class BatchSketchParser {
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_NOT_FOUND = -3;
+    public static final int STATUS_READ_ERROR = -4;
+    public static final int STATUS_PARSE_ERROR = -6;
+
+    private static final ProjectSettingsTypeAdapter PROJECT_SETTINGS_ADAPTER = new ProjectSettingsTypeAdapter();
+
+    public static class Result {
+        public final Path sketch;
+        public final int status;
+        public final String error;
+        public final ProjectSettings settings;
+
+        public Result(final Path sketch, final int status, final String error, final ProjectSettings settings) {
+            this.sketch = sketch;
+            this.status = status;
+            this.error = error;
+            this.settings = settings;
+        }
+    }
+
+    private final ForkJoinPool pool;
+
+    public BatchSketchParser(final ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public int parse(List<String> paths, PrintStream out) {
+        List<Found> found = new ArrayList<>();
+
+        for (String path : paths) {
+            File file = new File(path);
+            if (!file.exists()) {
+                found.add(new Found(new Result(file.toPath(), STATUS_NOT_FOUND, "Cannot open file " + path, null)));
+            } else if (file.isDirectory()) {
+                found.addAll(this.pool.invoke(new SketchFinder(file.toPath())));
+            } else {
+                found.add(new Found(file.toPath()));
+            }
+        }
+
+        List<ForkJoinTask<Result>> tasks = new ArrayList<>(found.size());
+        for (Found entry : found) {
+            tasks.add(entry.error == null ? this.pool.submit(() -> parseSketch(entry.sketch)) : null);
+        }
+
+        // printed in the argument and discovery order as soon as the head of the queue is ready
+        int failures = 0;
+        for (int i = 0; i < tasks.size(); ++i) {
+            Result result = found.get(i).error;
+            try {
+                if (result == null) result = tasks.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return STATUS_PARSE_ERROR;
+            } catch (ExecutionException e) {
+                result = new Result(found.get(i).sketch, STATUS_PARSE_ERROR, String.valueOf(e.getCause()), null);
+            }
+
+            out.println(toNDJSONLine(result));
+            if (result.status != STATUS_OK) ++failures;
+        }
+
+        out.flush();
+        return (failures == 0 ? STATUS_OK : STATUS_PARSE_ERROR);
+    }
+
+    public static Result parseSketch(Path sketch) {
+        if (Files.isDirectory(sketch)) {
+            sketch = sketch.resolve(sketch.getFileName().toString().concat(".ino"));
+        }
+        if (!Files.isRegularFile(sketch)) {
+            return new Result(sketch, STATUS_NOT_FOUND, "Cannot open file " + sketch, null);
+        }
+
+        String source;
+        try {
+            source = new String(Files.readAllBytes(sketch));
+        } catch (IOException e) {
+            return new Result(sketch, STATUS_READ_ERROR, e.toString(), null);
+        }
+
+        try {
+            SourceExtractor sourceExtractor = new SourceExtractor(null, LogProxy.silent());
+            sourceExtractor.setPrimarySketchFile(sketch.toFile());
+            return new Result(sketch, STATUS_OK, null, ProjectSettings.fromSource(sourceExtractor, source));
+        } catch (RuntimeException e) {
+            return new Result(sketch, STATUS_PARSE_ERROR, e.toString(), null);
+        }
+    }
+
+    public static String toNDJSONLine(Result result) {
+        StringWriter sw = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(sw)) {
+            writer.setSerializeNulls(true);
+            writer.beginObject();
+            writer.name("sketch").value(result.sketch != null ? result.sketch.toString() : null);
+            writer.name("status").value(result.status);
+            writer.name("error").value(result.error);
+            writer.name("settings");
+            PROJECT_SETTINGS_ADAPTER.write(writer, result.settings);
+            writer.endObject();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sw.toString();
+    }
+
+    // either a sketch to parse, or the error met while looking for sketches
+    private static class Found {
+        final Path sketch;
+        final Result error;
+
+        Found(final Path sketch) {
+            this.sketch = sketch;
+            this.error = null;
+        }
+
+        Found(final Result error) {
+            this.sketch = error.sketch;
+            this.error = error;
+        }
+    }
+
+    private static class SketchFinder extends RecursiveTask<List<Found>> {
+        private final Path dir;
+
+        SketchFinder(final Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<Found> compute() {
+            List<Found> result = new ArrayList<>();
+            List<Path> subDirs = new ArrayList<>();
+
+            try (Stream<Path> entries = Files.list(dir)) {
+                entries.forEach(entry -> {
+                    // the linked directories are not followed, so a link loop cannot make the search endless
+                    if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+                        subDirs.add(entry);
+                    }
+                });
+            } catch (IOException | UncheckedIOException e) {
+                return Collections.singletonList(new Found(new Result(dir, STATUS_READ_ERROR, "Cannot list directory " + dir + ": " + e,
+                        null)));
+            }
+            Collections.sort(subDirs);
+
+            Path dirNamePath = dir.toAbsolutePath().normalize().getFileName();
+            String dirName = (dirNamePath != null ? dirNamePath.toString() : "");
+            for (String ext : new String[] { ".ino", ".pde" }) {
+                Path primary = dir.resolve(dirName + ext);
+                if (Files.isRegularFile(primary)) {
+                    result.add(new Found(primary));
+                    break;
+                }
+            }
+
+            List<SketchFinder> forks = new ArrayList<>(subDirs.size());
+            for (Path subDir : subDirs) {
+                if (subDir.getFileName().toString().startsWith(".")) continue;
+                SketchFinder finder = new SketchFinder(subDir);
+                finder.fork();
+                forks.add(finder);
+            }
+            for (SketchFinder finder : forks) {
+                result.addAll(finder.join());
+            }
+
+            return result;
+        }
+    }
+}
@@ -8,19 +8,28 @@ import cc.arduino.contributions.packages.ContributedPackage;
 import cc.arduino.contributions.packages.ContributedPlatform;
 import cc.arduino.contributions.packages.ContributionInstaller;
 import cc.arduino.view.NotificationPopup;
-import com.github.gundy.semver4j.SemVer;
-import com.github.gundy.semver4j.model.Version;
 import com.github.zhgzhg.drizzle.utils.arduino.ArduinoIDEToolsInstaller;
 import com.github.zhgzhg.drizzle.utils.arduino.CompilationInvoker;
 import com.github.zhgzhg.drizzle.utils.arduino.ExternLibFileInstaller;
+import com.github.zhgzhg.drizzle.utils.arduino.EditorSketchContext;
 import com.github.zhgzhg.drizzle.utils.arduino.IDECompilationHook;
+import com.github.zhgzhg.drizzle.utils.arduino.IndexFreshness;
+import com.github.zhgzhg.drizzle.utils.arduino.LibraryCatalog;
+import com.github.zhgzhg.drizzle.utils.arduino.LibraryInstallPlan;
+import com.github.zhgzhg.drizzle.utils.arduino.TransitiveDependencyResolver;
 import com.github.zhgzhg.drizzle.utils.arduino.UILocator;
 import com.github.zhgzhg.drizzle.utils.arduino.UpdateUtils;
 import com.github.zhgzhg.drizzle.utils.collection.CollectionUtils;
+import com.github.zhgzhg.drizzle.utils.file.ArtifactCache;
 import com.github.zhgzhg.drizzle.utils.file.FileUtils;
+import com.github.zhgzhg.drizzle.utils.json.DrizzleLock;
+import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
 import com.github.zhgzhg.drizzle.utils.log.LogProxy;
 import com.github.zhgzhg.drizzle.utils.log.ProgressPrinter;
 import com.github.zhgzhg.drizzle.utils.misc.MutableBoolean;
+import com.github.zhgzhg.drizzle.utils.semver.SemverUtils;
+import com.github.zhgzhg.drizzle.utils.source.MarkerEditTracker;
+import com.github.zhgzhg.drizzle.utils.source.ProjectSettingsCache;
 import com.github.zhgzhg.drizzle.utils.source.SourceExtractor;
 import com.github.zhgzhg.drizzle.utils.text.TextUtils;
 import processing.app.Base;
@@ -35,6 +44,7 @@ import processing.app.debug.RunnerException;
 import processing.app.debug.TargetBoard;
 import processing.app.debug.TargetPackage;
 import processing.app.debug.TargetPlatform;
+import processing.app.packages.UserLibrary;
 import processing.app.tools.Tool;
 
 import javax.swing.*;
@@ -50,8 +60,16 @@ import java.net.URL;
 import java.time.Instant;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -61,18 +79,36 @@ public class Drizzle implements Tool {
 
     public static final String MENUS_HOLDER_TITLE = "Drizzle";
     public static final String MENU_APPLY_MARKERS_TITLE = "Apply Markers";
+    public static final String MENU_APPLY_MARKERS_REFRESH_INDEXES_TITLE = "Apply Markers (refresh board & library indexes)";
     public static final String MENU_AUTOGEN_ALL_MARKERS_TITLE = "Auto-generate @Board* and @Dependency Markers (via compilation)";
     public static final String MENU_AUTOGEN_BOARD_MARKERS_TITLE = "Auto-generate @Board* Markers";
     public static final String MENU_SHOW_AVAILABLE_FBNS_TITLE = "List Available FQBNs";
     public static final String MENU_ARDUINO_TOOL_INSTALL_TITLE = "Install tools marked with @ArduinoTool";
     public static final String MENU_ABOUT_DRIZZLE_TITLE = "About Drizzle";
 
+    public static final String PREF_MAX_PARALLEL_DOWNLOADS = "drizzle.max_parallel_downloads";
+    public static final int DEFAULT_MAX_PARALLEL_DOWNLOADS = 4;
+    public static final String PREF_INDEX_TTL_MINUTES = "drizzle.index_ttl_minutes";
+    public static final int DEFAULT_INDEX_TTL_MINUTES = 60;
+    public static final String PREF_OFFLINE = "drizzle.offline";
+    private static final String PLATFORM_STAGING_DIR = "staging" + File.separator + "packages";
+    private static final String LIBRARY_STAGING_DIR = "staging" + File.separator + "libraries";
+
+    private static final String PACKAGE_INDEX_FILE_NAME = "package_index.json";
+    private static final String LIBRARY_INDEX_FILE_NAME = "library_index.json";
+
     private final GPGDetachedSignatureVerifier gpgDetachedSignatureVerifier = new GPGDetachedSignatureVerifier();
     private Editor editor;
     private IDECompilationHook normalCompilationHook;
     private ContributionInstaller contributionInstaller;
     private LibraryInstaller libraryInstaller;
+    private LibraryCatalog libraryCatalog;
+    private IndexFreshness indexFreshness;
+    private ArtifactCache<EditorConsole> artifactCache;
+    private EditorSketchContext editorSketchContext;
     private SourceExtractor sourceExtractor;
+    private final ProjectSettingsCache projectSettingsCache = new ProjectSettingsCache();
+    private MarkerEditTracker markerEditTracker;
 
     private ProgressListener progressListener;
     private ProgressPrinter progressPrinter;
@@ -80,6 +116,7 @@ public class Drizzle implements Tool {
     private UILocator uiLocator;
 
     private JMenuItem applyDrizzleMarkersMenu = new JMenuItem(MENU_APPLY_MARKERS_TITLE);
+    private JMenuItem applyDrizzleMarkersRefreshIndexesMenu = new JMenuItem(MENU_APPLY_MARKERS_REFRESH_INDEXES_TITLE);
     private JMenuItem boardSettingsAndDependenciesGeneratorMenu = new JMenuItem(MENU_AUTOGEN_ALL_MARKERS_TITLE);
     private JMenuItem boardAndSettingsGeneratorMenu = new JMenuItem(MENU_AUTOGEN_BOARD_MARKERS_TITLE);
     private JMenuItem availableBoardFqdnListMenu = new JMenuItem(MENU_SHOW_AVAILABLE_FBNS_TITLE);
@@ -105,23 +142,30 @@ public class Drizzle implements Tool {
         };
 
         this.progressPrinter = new ProgressPrinter(logProxy);
-        this.sourceExtractor = new SourceExtractor(editor, logProxy);
+        this.editorSketchContext = new EditorSketchContext(editor);
+        this.sourceExtractor = new SourceExtractor(this.editorSketchContext, logProxy);
+        this.sourceExtractor.setProjectSettingsCache(this.projectSettingsCache);
+
+        this.markerEditTracker = new MarkerEditTracker(this.editorSketchContext::getPrimaryTabTextArea, this.sourceExtractor);
+
+        Thread warmUp = new Thread(SourceExtractor::warmUp, "drizzle-warm-up");
+        warmUp.setDaemon(true);
+        warmUp.start();
+
         this.progressListener = progress -> progressPrinter.progress();
 
         this.contributionInstaller = new ContributionInstaller(BaseNoGui.getPlatform(), gpgDetachedSignatureVerifier);
         this.libraryInstaller = new LibraryInstaller(BaseNoGui.getPlatform(), gpgDetachedSignatureVerifier);
+        this.indexFreshness = new IndexFreshness(BaseNoGui.getSettingsFile(IndexFreshness.STATE_FILE_NAME), logProxy);
+        this.artifactCache = new ArtifactCache<>(BaseNoGui.getSettingsFile(ArtifactCache.DIR_NAME), logProxy);
 
         this.normalCompilationHook = new IDECompilationHook(editor, logProxy,
                 (_editor, _logProxy, _context) -> {
                     String msg = "Compiling with the help of Drizzle...";
                     logProxy.uiInfo(msg);
                     logProxy.cliInfoln(msg);
-                    String source;
-                    try {
-                        source = SourceExtractor.loadSourceFromPrimarySketch(editor);
-                    } catch (IOException ex) {
-                        logProxy.cliErrorln(ex);
-                        logProxy.uiError(SourceExtractor.PREFERENCES_MARKER + ": error " + ex.getMessage());
+                    ProjectSettings projectSettings = loadProjectSettingsFromPrimarySketch();
+                    if (projectSettings == null) {
                         return false;
                     }
 
@@ -144,8 +188,7 @@ public class Drizzle implements Tool {
                         targetBoardId = targetBoard.getId();
                     }
 
-                    SourceExtractor se = new SourceExtractor(_editor, _logProxy);
-                    for (SourceExtractor.Preferences pref : se.dependentPreferencesFromMainSketchSource(source)) {
+                    for (SourceExtractor.Preferences pref : projectSettings.getPreferences()) {
                         if (pref.suitsRequirements(targetPackageName, targetPlatformName, targetBoardId)
                                 || pref.suitsRequirements(targetPackageName, targetPlatformName, targetBoardName)) {
 
@@ -173,6 +216,13 @@ public class Drizzle implements Tool {
             }
         });
 
+        this.applyDrizzleMarkersRefreshIndexesMenu.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(final ActionEvent e) {
+                Drizzle.this.applyMarkers(true);
+            }
+        });
+
         this.boardSettingsAndDependenciesGeneratorMenu.addActionListener(new AbstractAction() {
             @Override
             public void actionPerformed(final ActionEvent e) {
@@ -229,24 +279,21 @@ public class Drizzle implements Tool {
             public void actionPerformed(final ActionEvent e) {
                 new Thread(() -> {
                     logProxy.uiInfo("                                                                                                                                                                                                               ");
-                    String source;
-                    try {
-                        source = SourceExtractor.loadSourceFromPrimarySketch(editor);
-                    } catch (IOException ex) {
-                        logProxy.cliErrorln(ex);
-                        logProxy.uiError(ex.getMessage());
+                    ProjectSettings projectSettings = loadProjectSettingsFromPrimarySketch();
+                    if (projectSettings == null) {
                         return;
                     }
 
-                    SourceExtractor se = new SourceExtractor(editor, logProxy);
-                    List<SourceExtractor.ArduinoTool> arduinoTools = se.arduinoToolsFromMainSketchSource(source);
+                    Map<String, SourceExtractor.ArduinoTool> arduinoToolsMap = projectSettings.getArduinoIdeTools();
+                    List<SourceExtractor.ArduinoTool> arduinoTools = (arduinoToolsMap != null
+                            ? new ArrayList<>(arduinoToolsMap.values()) : Collections.emptyList());
 
                     ArduinoIDEToolsInstaller toolsInstaller = new ArduinoIDEToolsInstaller(logProxy);
 
                     int installedToolsCount = 0;
                     for (SourceExtractor.ArduinoTool at : arduinoTools) {
                         String installedVer = toolsInstaller.extractInstalledToolVersion(at.name);
-                        if (installedVer == null || (!installedVer.isEmpty() && SemVer.satisfies(installedVer, at.version))) {
+                        if (installedVer == null || (!installedVer.isEmpty() && SemverUtils.satisfies(installedVer, at.version))) {
                             logProxy.cliInfo("Installing %s from %s...%n", at.name, at.url);
                             if (toolsInstaller.installTool(at.name, at.url)) {
                                 ++installedToolsCount;
@@ -292,6 +339,7 @@ public class Drizzle implements Tool {
 
                             JMenu drizzleMenus = new JMenu(MENUS_HOLDER_TITLE);
                             drizzleMenus.add(applyDrizzleMarkersMenu);
+                            drizzleMenus.add(applyDrizzleMarkersRefreshIndexesMenu);
                             drizzleMenus.add(boardAndSettingsGeneratorMenu);
                             drizzleMenus.add(boardSettingsAndDependenciesGeneratorMenu);
                             drizzleMenus.add(availableBoardFqdnListMenu);
@@ -348,6 +396,10 @@ public class Drizzle implements Tool {
 
     @Override
     public void run() {
+        applyMarkers(false);
+    }
+
+    private void applyMarkers(boolean forceIndexRefresh) {
         this.uiLocator.editorConsole().ifPresent(editorConsole -> {
             editorConsole.clear();
             this.logProxy.setEditorConsole(new LogProxy.EditorConsoleSupplierAndSetter<EditorConsole>() {
@@ -369,46 +421,128 @@ public class Drizzle implements Tool {
             Optional<JMenuItem> drizzleMenu = uiLocator.drizzleMenu();
             drizzleMenu.ifPresent(dm -> dm.setEnabled(false));
 
-            int installedBoardsCount = installBoards();
+            ProjectSettings projectSettings = loadProjectSettingsFromPrimarySketch();
+            if (projectSettings == null) {
+                drizzleMenu.ifPresent(dm -> dm.setEnabled(true));
+                return;
+            }
+
+            File lockFile = lockFileOfPrimarySketch();
+            DrizzleLock lockedSet = (lockFile != null ? DrizzleLock.read(lockFile, this.logProxy) : null);
+            if (lockedSet != null && !lockedSet.isLockOf(projectSettings)) {
+                this.logProxy.cliInfo("The markers differ from the ones in %s, resolving them again%n", DrizzleLock.FILE_NAME);
+                lockedSet = null;
+            } else if (lockedSet != null) {
+                this.logProxy.cliInfo("Installing the versions locked in %s%n", lockFile);
+            }
+            boolean offline = PreferencesData.getBoolean(PREF_OFFLINE, false) || this.sourceExtractor.isOfflineInDrizzleJson();
+            if (offline) {
+                this.logProxy.cliInfoln("Offline mode - using only the cached indexes and artifacts");
+            }
+            ApplyRun run = new ApplyRun(lockedSet, new DrizzleLock(projectSettings), forceIndexRefresh && !offline, offline);
+            DrizzleLock resolvedSet = run.resolvedSet;
+
+            int installedBoardsCount = installBoards(projectSettings, run);
             if (installedBoardsCount == 0) {
                 this.logProxy.cliErrorln("No platform definitions managed by " + SourceExtractor.BOARDMANAGER_MARKER
                         + " marker in the main sketch were found");
             }
 
-            int installedLibsCount = installLibraries();
-            if (installedLibsCount < 0) {
+            // offline nothing gets installed while something is missing, so the whole list is reported at once
+            int installedLibsCount = installLibraries(projectSettings, run);
+            if (!run.missing.isEmpty()) {
+                this.logProxy.cliErrorln("Offline mode - the following are missing from the local caches:");
+                run.missing.forEach(missing -> this.logProxy.cliError(" - %s%n", missing));
+                this.logProxy.uiError("Offline mode - %d artifacts are missing from the local caches!", run.missing.size());
+
+                drizzleMenu.ifPresent(dm -> dm.setEnabled(true));
+                return;
+            } else if (installedLibsCount < 0) {
                 String err = "Couldn't install some/any libraries - managed by marker " + SourceExtractor.DEPENDSON_MARKER
                         + " in the main sketch!";
                 this.logProxy.cliErrorln(err);
                 this.logProxy.uiWarn(err);
             }
 
-            if (selectBoard() == 0) {
+            if (run.pendingPlatforms != null) {
+                installChosenPlatform(run.pendingPlatforms, run.pendingPlatformIndex);
+            }
+
+            if (selectBoard(projectSettings) == 0) {
                 this.logProxy.cliInfoln("No default board specified with " + SourceExtractor.BOARDNAME_MARKER
                         + " marker in the main sketch file was found");
             }
 
-            if (selectBoardOptions() == 0) {
+            if (selectBoardOptions(projectSettings) == 0) {
                 this.logProxy.cliInfoln("No clickable board options specified with " + SourceExtractor.BOARDSETTINGS_MARKER
                         + " marker were matched");
             }
 
+            // only a fully resolved set gets locked
+            if (lockFile != null && installedLibsCount >= 0 && run.unresolved.isEmpty()
+                    && (projectSettings.getBoardManager() == null || resolvedSet.getPlatform() != null)) {
+                lockArduinoTools(projectSettings, resolvedSet);
+                writeLock(lockFile, resolvedSet);
+            } else if (lockFile != null && !run.unresolved.isEmpty()) {
+                this.logProxy.cliInfo("Not writing %s, because no suitable version of %s was found%n", DrizzleLock.FILE_NAME,
+                        String.join(", ", run.unresolved));
+            }
+
             drizzleMenu.ifPresent(dm -> dm.setEnabled(true));
             this.logProxy.cliInfoln("Done!");
         }).start();
     }
 
-    private int selectBoard() {
+    private File lockFileOfPrimarySketch() {
+        File primarySketch = this.editorSketchContext.getPrimarySketchFile();
+        return (primarySketch != null && primarySketch.getParentFile() != null
+                ? new File(primarySketch.getParentFile(), DrizzleLock.FILE_NAME) : null);
+    }
+
+    private void lockArduinoTools(ProjectSettings projectSettings, DrizzleLock resolvedSet) {
+        Map<String, SourceExtractor.ArduinoTool> arduinoTools = projectSettings.getArduinoIdeTools();
+        if (arduinoTools == null || arduinoTools.isEmpty()) return;
+
+        ArduinoIDEToolsInstaller toolsInstaller = new ArduinoIDEToolsInstaller(logProxy);
+        for (SourceExtractor.ArduinoTool at : arduinoTools.values()) {
+            String installedVer = toolsInstaller.extractInstalledToolVersion(at.name);
+            resolvedSet.getTools().add(new DrizzleLock.Artifact(at.name, TextUtils.isNotNullOrBlank(installedVer) ? installedVer : null,
+                    at.url, null));
+        }
+    }
+
+    private void writeLock(File lockFile, DrizzleLock resolvedSet) {
+        if (!resolvedSet.containsData()) return;
+
+        try {
+            if (resolvedSet.write(lockFile)) {
+                this.logProxy.cliInfo("Updated %s%n", lockFile);
+            }
+        } catch (IOException e) {
+            this.logProxy.cliError("Failed writing %s - %s%n", lockFile, e.getMessage());
+        }
+    }
+
+    private ProjectSettings loadProjectSettingsFromPrimarySketch() {
+        ProjectSettings projectSettings = this.markerEditTracker.projectSettings();
+        if (projectSettings != null) {
+            return projectSettings;
+        }
+
         String source;
         try {
-            source = SourceExtractor.loadSourceFromPrimarySketch(editor);
+            source = this.editorSketchContext.loadSourceFromPrimarySketch();
         } catch (IOException e) {
             this.logProxy.cliErrorln(e);
             this.logProxy.uiError(e.getMessage());
-            return -1;
+            return null;
         }
 
-        SourceExtractor.Board board = sourceExtractor.dependentBoardFromMainSketchSource(source);
+        return this.sourceExtractor.projectSettingsFromMainSketchSource(source);
+    }
+
+    private int selectBoard(ProjectSettings projectSettings) {
+        SourceExtractor.Board board = projectSettings.getBoard();
         if (board == null) return 0;
 
         TargetBoard targetBoard = BaseNoGui.indexer.getIndex().getInstalledPlatforms().stream()
@@ -473,18 +607,10 @@ public class Drizzle implements Tool {
         return 1;
     }
 
-    private int installBoards() {
-        String source;
-        try {
-            source = SourceExtractor.loadSourceFromPrimarySketch(editor);
-        } catch (IOException e) {
-            this.logProxy.cliErrorln(e);
-            this.logProxy.uiError(e.getMessage());
-            return -1;
-        }
-
-        SourceExtractor.BoardManager bmSettings = this.sourceExtractor.dependentBoardManagerFromMainSketchSource(source);
+    private int installBoards(ProjectSettings projectSettings, ApplyRun run) {
+        SourceExtractor.BoardManager bmSettings = projectSettings.getBoardManager();
         if (bmSettings == null) return -1;
+        DrizzleLock lockedSet = run.lockedSet;
 
         String boardUrlsCsv = PreferencesData.get(cc.arduino.Constants.PREF_BOARDS_MANAGER_ADDITIONAL_URLS, "");
         if (bmSettings.url != null && !boardUrlsCsv.toLowerCase().contains(bmSettings.url)) {
@@ -495,64 +621,140 @@ public class Drizzle implements Tool {
             PreferencesData.set(cc.arduino.Constants.PREF_BOARDS_MANAGER_ADDITIONAL_URLS, boardUrlsCsv);
         }
 
-        this.logProxy.cliInfo("Updating platform definitions list...");
-        this.progressPrinter.begin(1, -1, 100, "...");
-        this.contributionInstaller.updateIndex(this.progressListener);
+        List<ContributedPlatform> possiblePlatforms = null;
+        int platfIndex = -1;
+
+        if (lockedSet != null && lockedSet.getPlatform() != null) {
+            // the locked version is looked up in the already loaded index, skipping its refresh
+            DrizzleLock.Artifact locked = lockedSet.getPlatform();
+            possiblePlatforms = platformsNamed(bmSettings.platform);
+            for (int i = 0; i < possiblePlatforms.size() && platfIndex < 0; ++i) {
+                ContributedPlatform p = possiblePlatforms.get(i);
+                if (locked.version.equals(p.getParsedVersion()) && isLockedChecksum(locked, p.getChecksum())) {
+                    platfIndex = i;
+                }
+            }
 
-        try {
-            BaseNoGui.indexer.parseIndex();
-            BaseNoGui.indexer.syncWithFilesystem();
-        } catch (Exception e) {
-            e.printStackTrace(this.logProxy.stderr());
-            return 0;
+            if (platfIndex < 0) {
+                this.logProxy.cliInfo("The locked platform %s %s is missing from the index, resolving it again%n", locked.name,
+                        locked.version);
+            } else {
+                this.logProxy.cliInfo("Locked platform version %s%n", locked.version);
+            }
         }
 
-        this.logProxy.cliInfoln(" done!\n");
+        if (platfIndex < 0) {
+            Map<String, File> platformIndexFiles = platformIndexFiles(boardUrlsCsv);
+            IndexFreshness.Check indexCheck = (run.offline ? null
+                    : this.indexFreshness.check(platformIndexFiles, indexTtlMillis(), run.forceIndexRefresh));
+            if (indexCheck == null) {
+                this.logProxy.cliInfoln("Using the cached platform definitions list\n");
+            } else if (indexCheck.isStale()) {
+                this.logProxy.cliInfo("Updating platform definitions list...");
+                this.progressPrinter.begin(1, -1, 100, "...");
+                String indexHash = this.indexFreshness.hashOf(platformIndexFiles.values());
+                this.contributionInstaller.updateIndex(this.progressListener);
+
+                // the already loaded index is reused when the downloaded files are the same
+                if (run.forceIndexRefresh || !indexHash.equals(this.indexFreshness.hashOf(platformIndexFiles.values()))) {
+                    try {
+                        BaseNoGui.indexer.parseIndex();
+                        BaseNoGui.indexer.syncWithFilesystem();
+                    } catch (Exception e) {
+                        e.printStackTrace(this.logProxy.stderr());
+                        return 0;
+                    }
+                }
+                this.indexFreshness.record(indexCheck);
 
-        this.logProxy.cliInfoln("Preparing platform installation...");
-        List<ContributedPlatform> possiblePlatforms = BaseNoGui.indexer.getPackages().stream()
-                .map(ContributedPackage::getPlatforms)
-                .flatMap(List::stream)
-                .filter(p -> bmSettings.platform.equals(p.getName()))
-                .collect(Collectors.toList());
+                this.logProxy.cliInfoln(" done!\n");
+            } else {
+                this.logProxy.cliInfoln("The platform definitions list is up to date\n");
+            }
 
-        List<String> candidateVersions = possiblePlatforms.stream().map(ContributedPlatform::getParsedVersion).collect(Collectors.toList());
+            this.logProxy.cliInfoln("Preparing platform installation...");
+            possiblePlatforms = platformsNamed(bmSettings.platform);
 
-        Comparator<String> possiblyUnnaturalSemverComparator = (v1, v2) -> {
-            try {
-                Version ver1 = Version.fromString(v1);
-                Version ver2 = Version.fromString(v2);
-                return Comparator.<Version>reverseOrder().compare(ver1, ver2);
-            } catch (Exception e) {
-                // don't care
-            }
-            return 0;
-        };
+            List<String> candidateVersions = possiblePlatforms.stream().map(ContributedPlatform::getParsedVersion).collect(Collectors.toList());
 
-        this.logProxy.cliInfo("%s - required: %s, candidates: %s%n", bmSettings.platform, bmSettings.version,
-                candidateVersions.stream()
-                        .sorted(possiblyUnnaturalSemverComparator)
-                        .collect(Collectors.toList())
-                        .toString()
-        );
+            this.logProxy.cliInfo("%s - required: %s, candidates: %s%n", bmSettings.platform, bmSettings.version,
+                    candidateVersions.stream()
+                            .sorted(SemverUtils.NEWEST_FIRST)
+                            .collect(Collectors.toList())
+                            .toString()
+            );
 
-        String chosenVersion = SemVer.maxSatisfying(candidateVersions, bmSettings.version);
-        if (TextUtils.isNotNullOrBlank(chosenVersion)) {
-            int platfIndex = candidateVersions.indexOf(chosenVersion);
-            ContributedPlatform platformToInstall = possiblePlatforms.get(platfIndex);
-            this.logProxy.cliInfo("Selected platform version %s%n", platformToInstall.getParsedVersion());
+            String chosenVersion = SemverUtils.maxSatisfying(candidateVersions, bmSettings.version);
+            if (TextUtils.isNullOrBlank(chosenVersion)) {
+                this.logProxy.cliError("Failed to pick version for platform %s, expression %s%n", bmSettings.platform, bmSettings.version);
+                if (run.offline) {
+                    run.missing.add(String.format("platform %s %s - not in the cached index", bmSettings.platform, bmSettings.version));
+                }
+                return 1;
+            }
+            platfIndex = candidateVersions.indexOf(chosenVersion);
+            this.logProxy.cliInfo("Selected platform version %s%n", possiblePlatforms.get(platfIndex).getParsedVersion());
+        }
 
-            boolean refreshUI = removeOldPlatform(possiblePlatforms, platfIndex);
-            refreshUI |= installPlatform(platformToInstall);
+        ContributedPlatform platformToInstall = possiblePlatforms.get(platfIndex);
+        if (run.offline && !platformToInstall.isInstalled() && !isStaged(PLATFORM_STAGING_DIR, platformToInstall.getArchiveFileName())) {
+            run.missing.add(String.format("platform %s %s - %s", platformToInstall.getName(), platformToInstall.getParsedVersion(),
+                    platformToInstall.getUrl()));
+            return 1;
+        }
+        run.resolvedSet.setPlatform(new DrizzleLock.Artifact(platformToInstall.getName(), platformToInstall.getParsedVersion(),
+                platformToInstall.getUrl(), DrizzleLock.sha256OfChecksum(platformToInstall.getChecksum())));
 
-            if (refreshUI) rebuildBoardMenuUI();
+        // offline the old versions are kept until the libraries turn out to be available too
+        if (run.offline) {
+            run.pendingPlatforms = possiblePlatforms;
+            run.pendingPlatformIndex = platfIndex;
         } else {
-            this.logProxy.cliError("Failed to pick version for platform %s, expression %s%n", bmSettings.platform, bmSettings.version);
+            installChosenPlatform(possiblePlatforms, platfIndex);
         }
 
         return 1;
     }
 
+    private void installChosenPlatform(List<ContributedPlatform> possiblePlatforms, int platfIndex) {
+        boolean refreshUI = removeOldPlatform(possiblePlatforms, platfIndex);
+        refreshUI |= installPlatform(possiblePlatforms.get(platfIndex));
+
+        if (refreshUI) rebuildBoardMenuUI();
+    }
+
+    private static long indexTtlMillis() {
+        return TimeUnit.MINUTES.toMillis(Math.max(0, PreferencesData.getInteger(PREF_INDEX_TTL_MINUTES, DEFAULT_INDEX_TTL_MINUTES)));
+    }
+
+    // the index URLs and the files they get downloaded to
+    private static Map<String, File> platformIndexFiles(String boardUrlsCsv) {
+        Map<String, File> result = new LinkedHashMap<>();
+        result.put(cc.arduino.Constants.PACKAGE_INDEX_URL, BaseNoGui.indexer.getIndexFile(PACKAGE_INDEX_FILE_NAME));
+
+        for (String url : boardUrlsCsv.split(",")) {
+            url = url.trim();
+            if (url.isEmpty()) continue;
+
+            String path = TextUtils.rtrim(url.replaceFirst("[?#].*$", ""), "/");
+            result.put(url, BaseNoGui.indexer.getIndexFile(path.substring(path.lastIndexOf('/') + 1)));
+        }
+        return result;
+    }
+
+    private static List<ContributedPlatform> platformsNamed(String platformName) {
+        return BaseNoGui.indexer.getPackages().stream()
+                .map(ContributedPackage::getPlatforms)
+                .flatMap(List::stream)
+                .filter(p -> platformName.equals(p.getName()))
+                .collect(Collectors.toList());
+    }
+
+    // artifacts locked without a SHA-256 checksum match any
+    private static boolean isLockedChecksum(DrizzleLock.Artifact locked, String checksum) {
+        return locked.sha256 == null || locked.sha256.equals(DrizzleLock.sha256OfChecksum(checksum));
+    }
+
     private boolean removeOldPlatform(final List<ContributedPlatform> possiblePlatforms, final int platfIndex) {
         boolean refreshUI = false;
 
@@ -611,15 +813,26 @@ public class Drizzle implements Tool {
         }
     }
 
-    private List<ContributedLibrary> loadAvailableLibraries() {
-        try {
-            this.logProxy.cliInfo("Updating library info...");
-            this.progressPrinter.begin(1, -1, 80, ".");
-            libraryInstaller.updateIndex(progressListener);
-            this.logProxy.cliInfoln(" done!");
-        } catch (Exception e) {
-            this.logProxy.cliError("error!%n%s%n", e.getMessage());
-            this.logProxy.uiError("Error Updating Packages Info: %s", e.getMessage());
+    private List<ContributedLibrary> loadAvailableLibraries(ApplyRun run) {
+        IndexFreshness.Check indexCheck = (run.offline ? null : this.indexFreshness.check(
+                Collections.singletonMap(cc.arduino.Constants.LIBRARY_INDEX_URL, BaseNoGui.getSettingsFile(LIBRARY_INDEX_FILE_NAME)),
+                indexTtlMillis(), run.forceIndexRefresh));
+
+        if (indexCheck == null) {
+            this.logProxy.cliInfoln("Using the cached library info");
+        } else if (indexCheck.isStale()) {
+            try {
+                this.logProxy.cliInfo("Updating library info...");
+                this.progressPrinter.begin(1, -1, 80, ".");
+                libraryInstaller.updateIndex(progressListener);
+                this.indexFreshness.record(indexCheck);
+                this.logProxy.cliInfoln(" done!");
+            } catch (Exception e) {
+                this.logProxy.cliError("error!%n%s%n", e.getMessage());
+                this.logProxy.uiError("Error Updating Packages Info: %s", e.getMessage());
+            }
+        } else {
+            this.logProxy.cliInfoln("The library info is up to date");
         }
 
         List<ContributedLibrary> libraries = BaseNoGui.librariesIndexer.getIndex().getLibraries();
@@ -630,184 +843,516 @@ public class Drizzle implements Tool {
         return libraries;
     }
 
-    private int installLibraries() {
-        String source;
-        try {
-             source = SourceExtractor.loadSourceFromPrimarySketch(editor);
-        } catch (IOException e) {
-            this.logProxy.cliErrorln(e);
-            this.logProxy.uiError(e.getMessage());
-            return -1;
+    private int installLibraries(ProjectSettings projectSettings, ApplyRun run) {
+        Map<String, SourceExtractor.DependentLibrary> requiredLibs = projectSettings.getLibraries();
+        if (requiredLibs == null || requiredLibs.isEmpty()) {
+            return 0;
         }
 
-        Map<String, SourceExtractor.DependentLibrary> requiredLibs = this.sourceExtractor.dependentLibsFromMainSketchSource(source);
-        if (requiredLibs.isEmpty()) {
-            return 0;
+        if (run.lockedSet != null) {
+            Integer lockedLibrariesCount = installLockedLibraries(requiredLibs, run);
+            if (lockedLibrariesCount != null) {
+                return lockedLibrariesCount;
+            }
         }
 
-        List<ContributedLibrary> availableLibraries = loadAvailableLibraries();
+        List<ContributedLibrary> availableLibraries = loadAvailableLibraries(run);
         if (availableLibraries.isEmpty()) {
             this.logProxy.cliErrorln("No available libraries were found!");
             return -1;
         }
 
+        if (this.libraryCatalog == null || !this.libraryCatalog.isBuiltFrom(availableLibraries)) {
+            this.libraryCatalog = new LibraryCatalog(availableLibraries);
+        }
+
         List<ContributedLibrary> librariesToInstall = new ArrayList<>();
         int installedLibrariesCount = 0;
+        URILibraries uriLibraries = downloadLibrariesFromURIs(requiredLibs, run);
 
         for (SourceExtractor.DependentLibrary entry : requiredLibs.values()) {
             String libName = entry.name;
             String libVer = entry.version;
 
-            List<ContributedLibrary> installCandidates =
-                    availableLibraries.stream().filter(lib -> libName.equals(lib.getName())).collect(Collectors.toList());
-
-            if (installCandidates.isEmpty() && libName.contains("_")) {
-                String libNameWithSpaces = libName.replace("_", " ");
-                installCandidates = availableLibraries.stream()
-                        .filter(lib -> libNameWithSpaces.equals(lib.getName())).collect(Collectors.toList());
-            }
-
-            List<String> installCandidateVersions = installCandidates.stream()
-                    .map(ContributedLibrary::getParsedVersion)
-                    .collect(Collectors.toList());
-
-            Comparator<String> possiblyUnnaturalSemverComparator = (v1, v2) -> {
-                try {
-                    Version ver1 = Version.fromString(v1);
-                    Version ver2 = Version.fromString(v2);
-                    return Comparator.<Version>reverseOrder().compare(ver1, ver2);
-                } catch (Exception e) {
-                    // don't care
-                }
-                return 0;
-            };
-
+            List<ContributedLibrary> installCandidates = this.libraryCatalog.candidatesOf(libName);
             this.logProxy.cliInfo("%s - required: %s, candidates: %s%n", libName, libVer,
-                    installCandidateVersions.stream()
-                            .sorted(possiblyUnnaturalSemverComparator)
-                            .collect(Collectors.toList()).toString()
-            );
+                    LibraryCatalog.versionsOf(installCandidates).toString());
 
-            if (installLibraryFromURI(libName, libVer, requiredLibs.keySet())) {
-                ++installedLibrariesCount;
-                continue;
-            }
+            // installed after the resolution, together with the ones they depend on
+            if (uriLibraries.libraries.containsKey(libName)) continue;
 
-            String chosenVersion = SemVer.maxSatisfying(installCandidateVersions, libVer);
-            if (TextUtils.isNotNullOrBlank(chosenVersion)) {
-                int libIndex = installCandidateVersions.indexOf(chosenVersion);
-                ContributedLibrary l = installCandidates.get(libIndex);
+            ContributedLibrary l = this.libraryCatalog.pick(installCandidates, libVer);
+            if (l != null) {
                 this.logProxy.cliInfo("Picked %s version %s%n", libName, l.getParsedVersion());
                 librariesToInstall.add(l);
             } else {
                 if (BaseNoGui.librariesIndexer.getInstalledLibraries().getByName(libName) == null) {
                     this.logProxy.cliError("Failed to pick version for %s, expression %s%n", libName, libVer);
+                    run.unresolved.add(libName + "::" + libVer);
+                    if (run.offline) run.missing.add(String.format("library %s %s - not in the cached index", libName, libVer));
                 } else {
                     this.logProxy.cliInfo("Picked core library %s%n", libName);
                 }
             }
         }
 
-        this.logProxy.cliInfo("Installing libraries...");
+        String currBoardArch = currentBoardArchitecture();
 
-        Set<ContributedLibrary> missingTransitiveDependencies = new LinkedHashSet<>();
-        Set<ContributedLibrary> missingNotInstalledTransitiveDependencies = new LinkedHashSet<>();
-        Map<ContributedLibrary, Set<ContributedLibrary>> transitiveDependencyRequiredBy = new LinkedHashMap<>();
+        // the whole dependency closure gets installed at once, so a single apply is enough
+        TransitiveDependencyResolver.Resolution resolution = new TransitiveDependencyResolver(this.libraryCatalog,
+                (TextUtils.isNotNullOrBlank(currBoardArch) ? currBoardArch : null),
+                (name, range) -> uriLibraries.libraries.containsKey(name) || this.isLibraryInstalled(name, range))
+                .resolve(librariesToInstall, uriLibraries.indexDependencies);
 
-        try {
-            this.progressPrinter.begin(1, 5, 80, ".");
-            this.libraryInstaller.install(librariesToInstall, this.progressListener);
-
-            librariesToInstall.stream()
-                    .map(lib -> new AbstractMap.SimpleEntry<>(lib, BaseNoGui.librariesIndexer.getIndex().resolveDependeciesOf(lib)))
-                    .filter(deps -> deps.getValue() != null && !deps.getValue().isEmpty())
-                    .forEach(libAndDeps -> libAndDeps.getValue().stream().forEach(dep -> {
-                            if (!dep.getInstalledLibrary().isPresent()) {
-                                missingNotInstalledTransitiveDependencies.add(dep);
-                                transitiveDependencyRequiredBy
-                                        .compute(dep, (dependency, origin) -> origin == null ? new LinkedHashSet<>() : origin)
-                                        .add(libAndDeps.getKey());
-                            }
+        if (run.offline && !collectUnstagedLibraries(resolution.getLibraries(), run)) {
+            return -1;
+        }
 
-                            if (!librariesToInstall.stream().anyMatch(lib -> lib.getName().equals(dep.getName()))) {
-                                missingTransitiveDependencies.add(dep);
-                                transitiveDependencyRequiredBy
-                                        .compute(dep, (dependency, origin) -> origin == null ? new LinkedHashSet<>() : origin)
-                                        .add(libAndDeps.getKey());
-                            }
-                        })
-                    );
+        for (SourceExtractor.DependentLibrary entry : uriLibraries.libraries.values()) {
+            if (!requiredLibs.containsKey(entry.name)) {
+                this.logProxy.cliInfo("%s - required as a transitive dependency: %s%n", entry.name, entry.version);
+            }
+            if (installLibraryFromURI(entry.name, entry.version, uriLibraries.downloads.get(entry.name))) {
+                ++installedLibrariesCount;
+            }
+        }
 
-            String currBoardArch = Optional.ofNullable(BaseNoGui.getTargetBoard())
-                    .map(TargetBoard::getContainerPlatform)
-                    .map(TargetPlatform::getId)
-                    .orElse(null);
-            if (TextUtils.isNullOrBlank(currBoardArch)) {
-                String error = "Cannot determine the target board / platform / architecture!\nThis may indicate a missing or corrupted board package.";
-                this.logProxy.cliErrorln(error);
-                this.logProxy.uiError(error);
-                return -1;
+        Map<ContributedLibrary, Set<String>> transitiveDependencyRequiredBy = resolution.getIntroducedBy();
+        if (!transitiveDependencyRequiredBy.isEmpty()) {
+            this.logProxy.cliInfo("Picked transitive dependencies unlisted in your %s settings:%n", MENUS_HOLDER_TITLE);
+            transitiveDependencyRequiredBy.keySet().forEach(transDep -> this.logProxy.cliInfo(" - %s version %s, introduced by: %s%n",
+                    transDep.getName(), transDep.getParsedVersion(),
+                    this.introducingTransitiveDependencyLibsToString(transitiveDependencyRequiredBy, transDep))
+            );
+        }
+        resolution.getCycles().forEach(cycle -> this.logProxy.cliInfo("Circular dependency %s%n", cycle));
+
+        for (SourceExtractor.DependentLibrary entry : uriLibraries.libraries.values()) {
+            // the ZIP and GIT libraries are locked by their URI, instead of a version
+            run.resolvedSet.getLibraries().add(new DrizzleLock.Artifact(entry.name, null, entry.version,
+                    artifactSha256Of(entry, uriLibraries.downloads.get(entry.name))));
+        }
+        resolution.getLibraries().forEach(lib -> run.resolvedSet.getLibraries().add(new DrizzleLock.Artifact(lib.getName(),
+                lib.getParsedVersion(), lib.getUrl(), DrizzleLock.sha256OfChecksum(lib.getChecksum()))));
+
+        int batchResult = installLibraryBatch(resolution.getLibraries(), installedLibrariesCount, currBoardArch);
+        if (batchResult < 0) {
+            return batchResult;
+        }
+
+        Map<String, Set<String>> unresolvedTransitiveDependencies = resolution.getUnresolved();
+        run.unresolved.addAll(unresolvedTransitiveDependencies.keySet());
+        if (!unresolvedTransitiveDependencies.isEmpty()) {
+            this.logProxy.cliError("Check your %s dependency list! No suitable version of the following transitive dependencies was found:%n",
+                    MENUS_HOLDER_TITLE);
+            unresolvedTransitiveDependencies.forEach((transDep, introducers) -> this.logProxy.cliError(" - %s, introduced by: [ %s ]%n",
+                    transDep, String.join(", ", introducers))
+            );
+            this.logProxy.uiWarn("Please add the missing transitive dependencies to your %s list.", MENUS_HOLDER_TITLE);
+        }
+
+        return resolution.getLibraries().size() + installedLibrariesCount - unresolvedTransitiveDependencies.size();
+    }
+
+    private String currentBoardArchitecture() {
+        return Optional.ofNullable(BaseNoGui.getTargetBoard())
+                .map(TargetBoard::getContainerPlatform)
+                .map(TargetPlatform::getId)
+                .orElse(null);
+    }
+
+    private int installLibraryBatch(List<ContributedLibrary> chosenLibraries, int installedFromURIsCount, String currBoardArch) {
+        // the libraries already installed in the chosen version need no reinstallation, rescan or menu rebuild
+        LibraryInstallPlan installPlan = new LibraryInstallPlan(chosenLibraries, this::installedLibraryVersionOf);
+        List<ContributedLibrary> libraryBatch = installPlan.getBatch();
+
+        if (!installPlan.isEmpty()) {
+            this.logProxy.cliInfo("Installing libraries...");
+
+            try {
+                this.progressPrinter.begin(1, 5, 80, ".");
+                this.libraryInstaller.install(libraryBatch, this.progressListener);
+            } catch (Exception e) {
+                this.logProxy.cliErrorln(e);
+                this.logProxy.uiError(e.getMessage());
+                return -2;
+            }
+        }
+
+        if (TextUtils.isNullOrBlank(currBoardArch)) {
+            String error = "Cannot determine the target board / platform / architecture!\nThis may indicate a missing or corrupted board package.";
+            this.logProxy.cliErrorln(error);
+            this.logProxy.uiError(error);
+            return -1;
+        }
+
+        if (!installPlan.isEmpty()) {
+            try {
+                this.uiLocator.sketchIncludeLibraryMenu().ifPresent(im -> Base.INSTANCE.rebuildImportMenu(im));
+                this.uiLocator.filesExamplesMenu().ifPresent(em -> Base.INSTANCE.rebuildExamplesMenu(em));
+            } catch (Exception e) {
+                this.logProxy.cliErrorln(e);
+                this.logProxy.uiError(e.getMessage());
+                return -2;
             }
+            this.logProxy.cliInfoln(" done:");
+            libraryBatch.forEach(l -> logProxy.cliInfo("  %s %s%n", l.getName(), l.getParsedVersion()));
+        }
+        this.logProxy.cliInfo("Libraries: %d satisfied / %d installed / %d upgraded%n", installPlan.getSatisfied().size(),
+                installPlan.getToInstall().size() + installedFromURIsCount, installPlan.getToUpgrade().size());
 
-            for (Iterator<Map.Entry<ContributedLibrary, Set<ContributedLibrary>>> it = transitiveDependencyRequiredBy.entrySet().iterator();
-                    it.hasNext(); ) {
+        return 0;
+    }
 
-                Map.Entry<ContributedLibrary, Set<ContributedLibrary>> libAndRequirement = it.next();
-                List<String> libArchitectures = libAndRequirement.getKey().getArchitectures();
+    // returns null when the locked set cannot be installed without resolving the markers again
+    private Integer installLockedLibraries(Map<String, SourceExtractor.DependentLibrary> requiredLibs, ApplyRun run) {
+        DrizzleLock lockedSet = run.lockedSet;
+
+        // a lock missing a required library, which is not installed either, cannot be trusted
+        Set<String> lockedNames = lockedSet.getLibraries().stream().map(locked -> locked.name).collect(Collectors.toSet());
+        for (String libName : requiredLibs.keySet()) {
+            if (!lockedNames.contains(libName) && BaseNoGui.librariesIndexer.getInstalledLibraries().getByName(libName) == null) {
+                this.logProxy.cliInfo("The required library %s is missing from %s, resolving the libraries again%n", libName,
+                        DrizzleLock.FILE_NAME);
+                return null;
+            }
+        }
 
-                if (!libArchitectures.isEmpty() && !libArchitectures.contains("*")
-                        && !libArchitectures.contains(currBoardArch)) {
+        List<ContributedLibrary> indexLibraries = BaseNoGui.librariesIndexer.getIndex().getLibraries();
+        if (indexLibraries == null) {
+            indexLibraries = Collections.emptyList();
+        }
+        if (this.libraryCatalog == null || !this.libraryCatalog.isBuiltFrom(indexLibraries)) {
+            this.libraryCatalog = new LibraryCatalog(indexLibraries);
+        }
 
-                    missingTransitiveDependencies.remove(libAndRequirement.getKey());
-                    missingNotInstalledTransitiveDependencies.remove(libAndRequirement.getKey());
-                    it.remove();
-                }
+        List<ContributedLibrary> lockedIndexLibraries = new ArrayList<>();
+        List<SourceExtractor.DependentLibrary> lockedURILibraries = new ArrayList<>();
+        Map<String, String> lockedURILibrarySha256s = new HashMap<>();
+        for (DrizzleLock.Artifact locked : lockedSet.getLibraries()) {
+            if (locked.version == null) {
+                lockedURILibraries.add(new SourceExtractor.DependentLibrary(locked.name, locked.url));
+                lockedURILibrarySha256s.put(locked.name, locked.sha256);
+                continue;
             }
 
-            this.uiLocator.sketchIncludeLibraryMenu().ifPresent(im -> Base.INSTANCE.rebuildImportMenu(im));
-            this.uiLocator.filesExamplesMenu().ifPresent(em -> Base.INSTANCE.rebuildExamplesMenu(em));
-        } catch (Exception e) {
-            this.logProxy.cliErrorln(e);
-            this.logProxy.uiError(e.getMessage());
-            return -2;
+            // the locked version is looked up in the already loaded index, skipping its refresh
+            ContributedLibrary lib = this.libraryCatalog.candidatesOf(locked.name).stream()
+                    .filter(l -> locked.version.equals(l.getParsedVersion()) && isLockedChecksum(locked, l.getChecksum()))
+                    .findFirst()
+                    .orElse(null);
+            if (lib == null) {
+                this.logProxy.cliInfo("The locked library %s %s is missing from the index, resolving the libraries again%n",
+                        locked.name, locked.version);
+                return null;
+            }
+            lockedIndexLibraries.add(lib);
         }
-        this.logProxy.cliInfoln(" done:");
-        librariesToInstall.forEach(l -> logProxy.cliInfo("  %s %s%n", l.getName(), l.getParsedVersion()));
-
-        if (!missingNotInstalledTransitiveDependencies.isEmpty()) {
-            this.logProxy.cliError(
-                    "Check your %s dependency list! The following transitive dependencies are not installed:%n", MENUS_HOLDER_TITLE);
-            missingNotInstalledTransitiveDependencies.forEach(transDep -> this.logProxy.cliError(
-                    " - %s, possibly version %s, introduced by: %s%n", transDep.getName(), transDep.getParsedVersion(),
-                    this.introducingTransitiveDependencyLibsToString(transitiveDependencyRequiredBy, transDep))
-            );
-            this.logProxy.uiWarn("Please add the missing transitive dependencies to your %s list.", MENUS_HOLDER_TITLE);
+
+        Map<String, Future<?>> downloads = downloadLibraries(lockedURILibraries, run);
+        if (run.offline && !collectUnstagedLibraries(lockedIndexLibraries, run)) {
+            return -1;
         }
-        if (!missingTransitiveDependencies.isEmpty()) {
-            this.logProxy.cliError("The following transitive dependencies are not listed in your project:%n");
-            missingTransitiveDependencies.forEach(transDep -> this.logProxy.cliError(" - %s, possiblly version %s, introduced by: %s%n",
-                    transDep.getName(), transDep.getParsedVersion(),
-                    this.introducingTransitiveDependencyLibsToString(transitiveDependencyRequiredBy, transDep))
-            );
-            this.logProxy.uiWarn("Please add the missing transitive dependencies to your %s list.", MENUS_HOLDER_TITLE);
+        run.resolvedSet.getLibraries().addAll(lockedSet.getLibraries());
+
+        int installedLibrariesCount = 0;
+        List<String> mismatchedLibraries = new ArrayList<>();
+        for (SourceExtractor.DependentLibrary entry : lockedURILibraries) {
+            Future<?> download = downloads.get(entry.name);
+
+            String lockedSha256 = lockedURILibrarySha256s.get(entry.name);
+            if (lockedSha256 != null && !lockedSha256.equals(artifactSha256Of(entry, download))) {
+                this.logProxy.cliError("The SHA-256 of %s differs from the one in %s! Skipping it!%n", entry.version,
+                        DrizzleLock.FILE_NAME);
+                mismatchedLibraries.add(entry.name);
+                continue;
+            }
+
+            this.logProxy.cliInfo("%s - locked: %s%n", entry.name, entry.version);
+            if (installLibraryFromURI(entry.name, entry.version, download)) {
+                ++installedLibrariesCount;
+            }
+        }
+
+        lockedIndexLibraries.forEach(lib -> this.logProxy.cliInfo("Locked %s version %s%n", lib.getName(), lib.getParsedVersion()));
+
+        int batchResult = installLibraryBatch(lockedIndexLibraries, installedLibrariesCount, currentBoardArchitecture());
+
+        // a changed archive is not trusted, and the negative count keeps the lock from being rewritten with it
+        if (!mismatchedLibraries.isEmpty()) {
+            this.logProxy.uiError("The SHA-256 of %s differs from the one in %s! Delete %s to resolve the libraries again.",
+                    String.join(", ", mismatchedLibraries), DrizzleLock.FILE_NAME, DrizzleLock.FILE_NAME);
+            return -1;
         }
+        return (batchResult < 0 ? batchResult : lockedIndexLibraries.size() + installedLibrariesCount);
+    }
 
-        return librariesToInstall.size() + installedLibrariesCount - missingNotInstalledTransitiveDependencies.size();
+    private boolean isLibraryInstalled(String libName, String versionRange) {
+        String installedVersion = installedLibraryVersionOf(libName);
+        return installedVersion != null && ("*".equals(versionRange) || SemverUtils.satisfies(installedVersion, versionRange));
+    }
+
+    private String installedLibraryVersionOf(String libName) {
+        UserLibrary installed = BaseNoGui.librariesIndexer.getInstalledLibraries().getByName(libName);
+        return (installed != null ? Objects.toString(installed.getVersion(), "") : null);
     }
 
     private String introducingTransitiveDependencyLibsToString(
-            Map<ContributedLibrary, Set<ContributedLibrary>> transDepAndIntroducers, ContributedLibrary transDep) {
+            Map<ContributedLibrary, Set<String>> transDepAndIntroducers, ContributedLibrary transDep) {
 
         if (transDepAndIntroducers == null || transDep == null || !transDepAndIntroducers.containsKey(transDep)
                 || CollectionUtils.isNullOrEmpty(transDepAndIntroducers.get(transDep))) {
             return "[ -no data- ]";
         }
 
-        return "[ " + transDepAndIntroducers.get(transDep).stream().map(ContributedLibrary::getName)
-                .collect(Collectors.joining(", ")) + " ]";
+        return "[ " + String.join(", ", transDepAndIntroducers.get(transDep)) + " ]";
+    }
+
+    private static URI downloadableURIOf(String libUri) {
+        if (libUri == null || !libUri.contains("://")) return null;
+
+        try {
+            URI uri = new URI(libUri);
+            String path = (uri.getPath() != null ? uri.getPath().toLowerCase() : "");
+            if (uri.getScheme() != null && uri.getScheme().toLowerCase().startsWith("http")
+                    && (path.endsWith(".zip") || path.endsWith(".git"))) {
+                return uri;
+            }
+        } catch (URISyntaxException e) {
+            // not an URI
+        }
+        return null;
+    }
+
+    private static class ApplyRun {
+        final DrizzleLock lockedSet;
+        final DrizzleLock resolvedSet;
+        final boolean forceIndexRefresh;
+        final boolean offline;
+        // the artifacts an offline run could not find locally
+        final List<String> missing = Collections.synchronizedList(new ArrayList<>());
+        // the required libraries and their dependencies without a suitable version, which keep the run from being locked
+        final List<String> unresolved = new ArrayList<>();
+        // the platform an offline run installs once nothing else is missing
+        List<ContributedPlatform> pendingPlatforms;
+        int pendingPlatformIndex = -1;
+
+        ApplyRun(final DrizzleLock lockedSet, final DrizzleLock resolvedSet, final boolean forceIndexRefresh, final boolean offline) {
+            this.lockedSet = lockedSet;
+            this.resolvedSet = resolvedSet;
+            this.forceIndexRefresh = forceIndexRefresh;
+            this.offline = offline;
+        }
+    }
+
+    // the index libraries can be installed offline only from the archives the IDE has already downloaded.
+    // returns false if anything is missing
+    private boolean collectUnstagedLibraries(List<ContributedLibrary> libs, ApplyRun run) {
+        new LibraryInstallPlan(libs, this::installedLibraryVersionOf).getBatch().stream()
+                .filter(lib -> !isStaged(LIBRARY_STAGING_DIR, lib.getArchiveFileName()))
+                .forEach(lib -> run.missing.add(String.format("library %s %s - %s", lib.getName(), lib.getParsedVersion(), lib.getUrl())));
+        return run.missing.isEmpty();
+    }
+
+    private static boolean isStaged(String stagingDir, String archiveFileName) {
+        return TextUtils.isNotNullOrBlank(archiveFileName)
+                && BaseNoGui.getSettingsFile(stagingDir + File.separator + archiveFileName).isFile();
+    }
+
+    private static class URILibraries {
+        // the ZIP and GIT libraries, followed by the ones they depend on, in the order of their discovery
+        final Map<String, SourceExtractor.DependentLibrary> libraries = new LinkedHashMap<>();
+        final Map<String, Future<?>> downloads = new HashMap<>();
+        // the libraries they depend on, which are looked up in the index
+        final List<TransitiveDependencyResolver.Dependency> indexDependencies = new ArrayList<>();
+    }
+
+    private static boolean isURILibrary(String libUri) {
+        if (libUri == null || !libUri.contains("://")) return false;
+        try {
+            new URI(libUri);
+            return true;
+        } catch (URISyntaxException e) {
+            return false;
+        }
     }
 
-    private boolean installLibraryFromURI(String libName, String libUri, Set<String> allRequiredLibNames) {
+    // fetches all ZIP and GIT libraries concurrently, while their installation remains sequential and in the marker order.
+    // the ones listed in their library.properties are fetched in further waves, until no new ones get discovered
+    private URILibraries downloadLibrariesFromURIs(Map<String, SourceExtractor.DependentLibrary> requiredLibs, ApplyRun run) {
+        URILibraries result = new URILibraries();
+        Set<String> knownLibNames = new HashSet<>(requiredLibs.keySet());
+
+        List<SourceExtractor.DependentLibrary> wave = new ArrayList<>();
+        for (SourceExtractor.DependentLibrary lib : requiredLibs.values()) {
+            if (isURILibrary(lib.version)) {
+                wave.add(lib);
+                result.libraries.put(lib.name, lib);
+            }
+        }
+        if (wave.isEmpty()) return result;
+
+        int parallelDownloads = parallelDownloads();
+        ExecutorService executor = newDownloadExecutor(parallelDownloads);
+
+        try {
+            ExternLibFileInstaller<EditorConsole> installer = new ExternLibFileInstaller<>(this.logProxy);
+            while (!wave.isEmpty()) {
+                result.downloads.putAll(downloadLibraryWave(executor, parallelDownloads, wave, run.offline ? run.missing : null));
+
+                List<SourceExtractor.DependentLibrary> nextWave = new ArrayList<>();
+                for (SourceExtractor.DependentLibrary lib : wave) {
+                    File libFileOrDir = downloadedLibraryFileOrDir(lib, result.downloads.get(lib.name));
+                    if (libFileOrDir == null) continue;
+
+                    for (SourceExtractor.DependentLibrary dependency : installer.dependenciesOf(libFileOrDir)) {
+                        if (knownLibNames.contains(dependency.name) || knownLibNames.contains(dependency.name.replace(' ', '_'))) {
+                            continue;
+                        }
+                        knownLibNames.add(dependency.name);
+
+                        if (isURILibrary(dependency.version)) {
+                            nextWave.add(dependency);
+                            result.libraries.put(dependency.name, dependency);
+                        } else {
+                            result.indexDependencies.add(
+                                    new TransitiveDependencyResolver.Dependency(dependency.name, dependency.version, lib.name));
+                        }
+                    }
+                }
+                wave = nextWave;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return result;
+    }
+
+    private static int parallelDownloads() {
+        return Math.max(1, PreferencesData.getInteger(PREF_MAX_PARALLEL_DOWNLOADS, DEFAULT_MAX_PARALLEL_DOWNLOADS));
+    }
+
+    private static ExecutorService newDownloadExecutor(int parallelDownloads) {
+        return Executors.newFixedThreadPool(parallelDownloads, r -> {
+            Thread t = new Thread(r, "drizzle-lib-download");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // fetches the given ZIP and GIT libraries concurrently, without looking for the ones they depend on
+    private Map<String, Future<?>> downloadLibraries(List<SourceExtractor.DependentLibrary> libs, ApplyRun run) {
+        if (libs.isEmpty()) return Collections.emptyMap();
+
+        int parallelDownloads = parallelDownloads();
+        ExecutorService executor = newDownloadExecutor(parallelDownloads);
+        try {
+            return downloadLibraryWave(executor, parallelDownloads, libs, run.offline ? run.missing : null);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // offlineMissing is null when online, otherwise the libraries get restored from the artifact cache and the absent ones
+    // are added to it
+    private Map<String, Future<?>> downloadLibraryWave(ExecutorService executor, int parallelDownloads,
+            List<SourceExtractor.DependentLibrary> libs, List<String> offlineMissing) {
+
+        Map<String, URI> uris = new LinkedHashMap<>();
+        for (SourceExtractor.DependentLibrary lib : libs) {
+            URI uri = downloadableURIOf(lib.version);
+            if (uri != null) {
+                uris.put(lib.name, uri);
+            } else if (offlineMissing != null) {
+                File libFileOrDir = downloadedLibraryFileOrDir(lib, null);
+                if (libFileOrDir != null && !libFileOrDir.exists()) {
+                    offlineMissing.add(String.format("library %s - %s does not exist", lib.name, libFileOrDir));
+                }
+            }
+        }
+        if (uris.isEmpty()) return Collections.emptyMap();
+
+        this.logProxy.cliInfo("%s %d external libraries, up to %d at a time...%n",
+                (offlineMissing != null ? "Restoring from the cache" : "Downloading"), uris.size(),
+                Math.min(uris.size(), parallelDownloads));
+        AtomicInteger downloadedCount = new AtomicInteger();
+        Map<String, Future<?>> downloads = new LinkedHashMap<>();
+        uris.forEach((libName, uri) -> downloads.put(libName, executor.submit(() -> {
+            FileUtils fileUtils = new FileUtils(logProxy);
+            boolean isZip = uri.getPath().toLowerCase().endsWith(".zip");
+            Object result;
+            try {
+                if (offlineMissing != null) {
+                    result = (isZip
+                            ? this.artifactCache.restoreZip(uri.toString(), "-lib")
+                            : this.artifactCache.restoreGit(uri.toString(), uri.getFragment(), libName, "-libgit"));
+                    if (result == null) {
+                        offlineMissing.add(String.format("library %s - %s is not cached", libName, uri));
+                    }
+                } else if (isZip) {
+                    File zip = fileUtils.downloadZip(uri.toURL(), "-lib");
+                    this.artifactCache.storeZip(uri.toString(), zip);
+                    result = zip;
+                } else {
+                    FileUtils.RepoLibDir repoLibDir = fileUtils.downloadGit(uri.toURL(), libName, "-libgit");
+                    if (repoLibDir != null) this.artifactCache.storeGit(uri.toString(), repoLibDir.dir);
+                    result = repoLibDir;
+                }
+            } finally {
+                this.logProxy.cliInfo("  %s (%d/%d)%n", libName, downloadedCount.incrementAndGet(), uris.size());
+            }
+            return result;
+        })));
+
+        // waiting for the slowest download
+        downloads.values().forEach(download -> downloaded(download, Object.class, () -> null));
+        return downloads;
+    }
+
+    // only the ZIP files get a checksum, the directories and GIT repositories are locked by their URI
+    private String artifactSha256Of(SourceExtractor.DependentLibrary lib, Future<?> download) {
+        File libFileOrDir = downloadedLibraryFileOrDir(lib, download);
+        if (libFileOrDir == null || !libFileOrDir.isFile()) return null;
+
+        try {
+            return DrizzleLock.sha256Of(libFileOrDir);
+        } catch (IOException e) {
+            this.logProxy.cliErrorln(e);
+            return null;
+        }
+    }
+
+    private static File downloadedLibraryFileOrDir(SourceExtractor.DependentLibrary lib, Future<?> download) {
+        if (download == null) {
+            try {
+                URI uri = new URI(lib.version);
+                return ("file".equalsIgnoreCase(uri.getScheme()) ? new File(uri) : null);
+            } catch (URISyntaxException | IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        Object downloaded = downloaded(download, Object.class, () -> null);
+        if (downloaded instanceof FileUtils.RepoLibDir) return ((FileUtils.RepoLibDir) downloaded).dir;
+        return (downloaded instanceof File ? (File) downloaded : null);
+    }
+
+    private static <V> V downloaded(Future<?> download, Class<V> type, Supplier<V> fallback) {
+        if (download != null) {
+            try {
+                return type.cast(download.get());
+            } catch (ExecutionException | CancellationException e) {
+                return null;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        return fallback.get();
+    }
+
+    private boolean installLibraryFromURI(String libName, String libUri, Future<?> download) {
         if (libUri == null || "*".equals(libUri) || !libUri.contains("://")) return false;
 
         URL url;
@@ -836,24 +1381,23 @@ public class Drizzle implements Tool {
             FileUtils fileUtils = new FileUtils(logProxy);
 
             if (!isZip) {
-                FileUtils.RepoLibDir repoLibDir = fileUtils.downloadGit(url, libName, "-libgit");
+                FileUtils.RepoLibDir repoLibDir = downloaded(download, FileUtils.RepoLibDir.class,
+                        () -> fileUtils.downloadGit(url, libName, "-libgit"));
                 if (repoLibDir != null && repoLibDir.dir != null) {
                     ExternLibFileInstaller<EditorConsole> installer = new ExternLibFileInstaller<EditorConsole>(this.logProxy);
                     if (installer.installZipOrDirWithZips(repoLibDir.dir)) {
                         installer.logSuccessfullyInstalledLib(libUri);
                         BaseNoGui.librariesIndexer.rescanLibraries();
-                        logURILibNotInstalledOrUnlistedTransitiveDependencies(repoLibDir.resultingLibNameDir, installer, allRequiredLibNames);
                     }
                     fileUtils.delayedDirRemoval(30000, repoLibDir.dir.getParentFile());
                 }
             } else {
-                File tempFile = fileUtils.downloadZip(url, "-lib");
+                File tempFile = downloaded(download, File.class, () -> fileUtils.downloadZip(url, "-lib"));
                 if (tempFile != null) {
                     ExternLibFileInstaller<EditorConsole> installer = new ExternLibFileInstaller<EditorConsole>(this.logProxy);
                     if (installer.installZipOrDirWithZips(tempFile)) {
                         installer.logSuccessfullyInstalledLib(libUri);
                         BaseNoGui.librariesIndexer.rescanLibraries();
-                        logURILibNotInstalledOrUnlistedTransitiveDependencies(libName, installer, allRequiredLibNames);
                     }
                     fileUtils.delayedFileRemoval(30000, tempFile);
                 }
@@ -869,64 +1413,12 @@ public class Drizzle implements Tool {
         if (installer.installZipOrDirWithZips(f)) {
             installer.logSuccessfullyInstalledLib(libUri);
             BaseNoGui.librariesIndexer.rescanLibraries();
-            logURILibNotInstalledOrUnlistedTransitiveDependencies(libName, installer, allRequiredLibNames);
         }
 
         return true;
     }
 
-    private void logURILibNotInstalledOrUnlistedTransitiveDependencies(
-            String libName, ExternLibFileInstaller<EditorConsole> installer, Set<String> allRequiredLibNames) {
-
-        String currBoardArch = Optional.ofNullable(BaseNoGui.getTargetBoard())
-                .map(TargetBoard::getContainerPlatform)
-                .map(TargetPlatform::getId)
-                .orElse(null);
-        if (TextUtils.isNullOrBlank(currBoardArch)) {
-            String error = "Cannot determine the target board / platform / architecture!\nThis may indicate a missing or corrupted board package.";
-            this.logProxy.cliErrorln(error);
-            this.logProxy.uiError(error);
-            return;
-        }
-
-        Set<String> notInstalledTransitiveDependencies = installer.getTransitiveDependencies().stream()
-                .map(BaseNoGui.librariesIndexer.getIndex()::find)
-                .filter(contributedLibraries -> !contributedLibraries.isEmpty() && contributedLibraries.stream()
-                        .allMatch(cl -> !cl.isLibraryInstalled() && !cl.getArchitectures().isEmpty() && !cl.getArchitectures().contains("*")
-                                && !cl.getArchitectures().contains(currBoardArch))
-                )
-                .map(contributedLibraries -> contributedLibraries.get(0).getName())
-                .collect(Collectors.toSet());
-
-        if (!notInstalledTransitiveDependencies.isEmpty()) {
-            this.logProxy.cliError("%s depends transitively on the following not installed libraries:%n", libName);
-            notInstalledTransitiveDependencies.forEach(td -> this.logProxy.cliErrorln(" - " + td));
-            this.logProxy.uiWarn("Please add the missing transitive dependencies to your Drizzle list.");
-        }
-
-        Set<String> unlistedTransitiveDependencies = installer.getTransitiveDependencies().stream()
-                .filter(missingLib -> !(allRequiredLibNames != null && (allRequiredLibNames.contains(missingLib)
-                        || allRequiredLibNames.contains(missingLib.replace(' ', '_'))))
-                )
-                .collect(Collectors.toSet());
-        if (!unlistedTransitiveDependencies.isEmpty()) {
-            this.logProxy.cliError(
-                    "%s depends transitively on the following unlisted in your %s settings libraries:%n", libName, MENUS_HOLDER_TITLE);
-            unlistedTransitiveDependencies.forEach(td -> this.logProxy.cliErrorln(" - " + td));
-            this.logProxy.uiWarn("Please add the missing transitive dependencies to your Drizzle list.");
-        }
-    }
-
-    private int selectBoardOptions() {
-        String source;
-        try {
-            source = SourceExtractor.loadSourceFromPrimarySketch(editor);
-        } catch (IOException e) {
-            this.logProxy.cliErrorln(e);
-            this.logProxy.uiError(e.getMessage());
-            return -1;
-        }
-
+    private int selectBoardOptions(ProjectSettings projectSettings) {
         TargetPlatform targetPlatform = BaseNoGui.getTargetPlatform();
         TargetBoard targetBoard = BaseNoGui.getTargetBoard();
 
@@ -935,7 +1427,7 @@ public class Drizzle implements Tool {
         String targetBoardId = (targetBoard != null ? targetBoard.getId() : null);
 
         List<SourceExtractor.BoardSettings> settingsToClick =
-                this.sourceExtractor.dependentBoardClickableSettingsFromMainSketchSource(source).stream()
+                projectSettings.getBoardSettings().stream()
                         .filter(boardSettings -> boardSettings.suitsRequirements(targetPlatformName, targetBoardId)
                                 || boardSettings.suitsRequirements(targetPlatformName, targetBoardName))
                         .collect(Collectors.toList());
@@ -1014,11 +1506,9 @@ public class Drizzle implements Tool {
                     Stream.of(matcher.group(1).split(" "))
                             .map(libName -> TextUtils.ltrim(libName, "["))
                             .map(libName -> TextUtils.rtrim(libName, "]"))
-                            .sorted((lib1, lib2) -> {
-                                String v1 = TextUtils.extractIf(lib1.split("@", 2), 1, TextUtils::isNotNullOrBlank, "*");
-                                String v2 = TextUtils.extractIf(lib2.split("@", 2), 1, TextUtils::isNotNullOrBlank, "*");
-                                return -Version.fromString(v1).compareTo(Version.fromString(v2));
-                            })
+                            .sorted(Comparator.comparing(
+                                    lib -> TextUtils.extractIf(lib.split("@", 2), 1, TextUtils::isNotNullOrBlank, "*"),
+                                    SemverUtils.NEWEST_FIRST))
                             .findFirst()
                             .ifPresent(lib -> {
                                 String[] nameAndVersion = lib.split("@", 2);
@@ -1097,7 +1587,7 @@ public class Drizzle implements Tool {
                     .collect(Collectors.toMap(ContributedPlatform::getVersion, Function.identity()));
 
             if (!possiblePlatforms.isEmpty()) {
-                String s = SemVer.maxSatisfying(possiblePlatforms.keySet(), "*");
+                String s = SemverUtils.maxSatisfying(possiblePlatforms.keySet(), "*");
                 boardManager = String.format("%s %s::%s", SourceExtractor.BOARDMANAGER_MARKER, platformName, s);
                 result.add(boardManager);
             }
@@ -2,6 +2,7 @@ package com.github.zhgzhg.drizzle;
 
 import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
 import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+import com.github.zhgzhg.drizzle.utils.source.MarkerBlockSync;
 import com.github.zhgzhg.drizzle.utils.source.SourceExtractor;
 import com.github.zhgzhg.drizzle.utils.text.TextUtils;
 
@@ -10,6 +11,8 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
 
 public class DrizzleCLI {
 
@@ -25,7 +28,15 @@ public class DrizzleCLI {
 
             System.out.printf("Usage:%n");
             System.out.printf("\tjava -jar drizzle-%s.jar --parse <arduino-proj.ino | arduino-proj-directory>%n", implementationVersion);
+            System.out.printf("\tjava -jar drizzle-%s.jar --parse-batch <arduino-proj.ino | directory-tree>...%n", implementationVersion);
             System.out.printf("\tjava -jar drizzle-%s.jar --rev-parse <file.json>%n", implementationVersion);
+            System.out.printf("\tjava -jar drizzle-%s.jar --sync <arduino-proj.ino | arduino-proj-directory> [drizzle.json]%n", implementationVersion);
+            System.out.printf("\tjava -jar drizzle-%s.jar --daemon [port] [idle-timeout-minutes]%n", implementationVersion);
+            System.out.printf("\tjava -jar drizzle-%s.jar --client <--parse | --rev-parse> <file>%n", implementationVersion);
+            return;
+        }
+        if (args.length > 0 && "--daemon".equals(args[0])) {
+            runDaemon(args);
             return;
         }
         if (args.length < 2) {
@@ -36,15 +47,58 @@ public class DrizzleCLI {
         if ("--parse".equals(args[0])) {
             parseSketchMarkers(args[1]);
             return;
+        } else if ("--parse-batch".equals(args[0])) {
+            int status = new BatchSketchParser(new ForkJoinPool()).parse(Arrays.asList(args).subList(1, args.length), System.out);
+            if (status != BatchSketchParser.STATUS_OK) {
+                System.exit(status);
+            }
+            return;
         } else if ("--rev-parse".equals(args[0])) {
             jsonToSketchMarkers(args[1]);
             return;
+        } else if ("--sync".equals(args[0])) {
+            syncSketchMarkers(args[1], args.length > 2 ? args[2] : null);
+            return;
+        } else if ("--client".equals(args[0]) && args.length > 2) {
+            // forwards to a running daemon, otherwise does the work in this process
+            if ("--parse".equals(args[1])) {
+                if (!DrizzleDaemon.forward(DrizzleDaemon.portFromEnvironment(), DrizzleDaemon.CMD_PARSE, args[2], System.out, System.err)) {
+                    parseSketchMarkers(args[2]);
+                }
+                return;
+            } else if ("--rev-parse".equals(args[1])) {
+                if (!DrizzleDaemon.forward(DrizzleDaemon.portFromEnvironment(), DrizzleDaemon.CMD_REV_PARSE, args[2], System.out, System.err)) {
+                    jsonToSketchMarkers(args[2]);
+                }
+                return;
+            }
         }
 
         System.err.printf("Unrecognized argument %s%n", args[0]);
         System.exit(-2);
     }
 
+    private static void runDaemon(String[] args) {
+        int port = DrizzleDaemon.portFromEnvironment();
+        long idleTimeoutMillis = DrizzleDaemon.DEFAULT_IDLE_TIMEOUT_MILLIS;
+        try {
+            if (args.length > 1) port = Integer.parseInt(args[1]);
+            if (args.length > 2) idleTimeoutMillis = Long.parseLong(args[2]) * 60 * 1000L;
+        } catch (NumberFormatException e) {
+            System.out.println("Incorrect arguments! Use -h or --help for more information!");
+            System.exit(-1);
+        }
+
+        try (DrizzleDaemon daemon = new DrizzleDaemon(port, idleTimeoutMillis,
+                DrizzleDaemon.loadOrCreateToken(DrizzleDaemon.defaultTokenFile()))) {
+            System.out.printf("Drizzle daemon listening on localhost:%d%n", daemon.bind());
+            daemon.serve();
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+            System.exit(-8);
+        }
+    }
+
     private static void jsonToSketchMarkers(String jsonFile) {
 
         try {
@@ -63,6 +117,43 @@ public class DrizzleCLI {
         }
     }
 
+    private static void syncSketchMarkers(String file, String jsonFile) {
+        File sketch = new File(file);
+        if (sketch.exists() && sketch.isDirectory()) {
+            sketch = new File(sketch.getPath(), sketch.getName().concat(".ino"));
+        }
+        File json = (jsonFile != null ? new File(jsonFile) : new File(sketch.getAbsoluteFile().getParentFile(), "drizzle.json"));
+
+        for (File f : new File[] { sketch, json }) {
+            if (!f.exists()) {
+                System.err.printf("Cannot open file %s%n", f.toString());
+                System.exit(-3);
+            }
+        }
+
+        try {
+            ProjectSettings projSettings = ProjectSettings.fromJSON(new String(Files.readAllBytes(json.toPath())), new LogProxy());
+            if (projSettings == null || !projSettings.containsData()) {
+                throw new IllegalArgumentException("Unable to generate Drizzle markers from the JSON");
+            }
+
+            SourceExtractor sourceExtractor = new SourceExtractor(null, LogProxy.silent());
+
+            boolean updated = MarkerBlockSync.syncFile(sketch.toPath(), projSettings, sourceExtractor);
+            System.out.printf("%s %s%n", (updated ? "Updated" : "Unchanged"), sketch);
+
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace(System.err);
+            System.exit(-5);
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            System.exit(-9);
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+            System.exit(-4);
+        }
+    }
+
     public static void parseSketchMarkers(String file) {
         File sketch = new File(file);
         if (sketch.exists() && sketch.isDirectory()) {
@@ -88,6 +179,8 @@ public class DrizzleCLI {
             }
         });
 
+        sourceExtractor.setPrimarySketchFile(sketch);
+
         String source = null;
         try {
             source = new String(Files.readAllBytes(sketch.toPath()));
@@ -0,0 +1,379 @@
+package com.github.zhgzhg.drizzle;
+
+import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
+import com.github.zhgzhg.drizzle.utils.json.ProjectSettingsTypeAdapter;
+import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+import com.github.zhgzhg.drizzle.utils.source.MarkerBlockSync;
+import com.github.zhgzhg.drizzle.utils.source.SourceExtractor;
+import com.github.zhgzhg.drizzle.utils.text.TextUtils;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DrizzleDaemon implements Closeable {
+    public static final int DEFAULT_PORT = 47520;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+    public static final String PORT_ENV_VAR = "DRIZZLE_DAEMON_PORT";
+    public static final String TOKEN_FILE_NAME = ".drizzle-daemon-token";
+
+    public static final String CMD_PARSE = "parse";
+    public static final String CMD_REV_PARSE = "rev-parse";
+    public static final String CMD_SYNC = "sync";
+    public static final String CMD_SHUTDOWN = "shutdown";
+
+    public static final int STATUS_REV_PARSE_ERROR = -5;
+    public static final int STATUS_BAD_REQUEST = -7;
+    public static final int STATUS_SYNC_ERROR = -9;
+    public static final int STATUS_UNAUTHORIZED = -10;
+
+    private static final String TOKEN_FILE_PERMISSIONS = "rw-------";
+    private static final int CONNECT_TIMEOUT_MILLIS = 250;
+    private static final int REQUEST_TIMEOUT_MILLIS = 60_000;
+    private static final ProjectSettingsTypeAdapter PROJECT_SETTINGS_ADAPTER = new ProjectSettingsTypeAdapter();
+    private static final Gson PRETTY_GSON = new GsonBuilder().disableHtmlEscaping().serializeNulls().setPrettyPrinting().create();
+
+    private final int port;
+    private final long idleTimeoutMillis;
+    private final byte[] token;
+    private final ExecutorService workers;
+    private final AtomicInteger activeConnections = new AtomicInteger();
+
+    private volatile ServerSocket serverSocket;
+    private volatile long lastActivity = System.currentTimeMillis();
+
+    // every request must carry the token, which only the user running the daemon can read
+    public DrizzleDaemon(final int port, final long idleTimeoutMillis, final String token) {
+        if (TextUtils.isNullOrBlank(token)) {
+            throw new IllegalArgumentException("The daemon requires a token");
+        }
+        this.port = port;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        // a fixed set of threads, so their per-thread lexers stay warm between the requests
+        this.workers = Executors.newFixedThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread t = new Thread(r, "drizzle-daemon-worker");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static int portFromEnvironment() {
+        String port = System.getenv(PORT_ENV_VAR);
+        if (TextUtils.isNotNullOrBlank(port)) {
+            try {
+                return Integer.parseInt(port.trim());
+            } catch (NumberFormatException e) {
+                // use the default one
+            }
+        }
+        return DEFAULT_PORT;
+    }
+
+    public static Path defaultTokenFile() {
+        return Paths.get(System.getProperty("user.home"), TOKEN_FILE_NAME);
+    }
+
+    // the file is created readable and writable by its owner only
+    public static String loadOrCreateToken(Path tokenFile) throws IOException {
+        String token = readToken(tokenFile);
+        if (token != null) {
+            restrictToOwner(tokenFile);
+            return token;
+        }
+
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder sb = new StringBuilder(random.length * 2);
+        for (byte b : random) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        token = sb.toString();
+
+        try {
+            if (isPosix(tokenFile)) {
+                Files.createFile(tokenFile,
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(TOKEN_FILE_PERMISSIONS)));
+            } else {
+                Files.createFile(tokenFile);
+            }
+        } catch (FileAlreadyExistsException e) {
+            restrictToOwner(tokenFile); // an empty one
+        }
+        Files.write(tokenFile, token.getBytes(StandardCharsets.UTF_8));
+        return token;
+    }
+
+    public static String readToken(Path tokenFile) {
+        try {
+            String token = new String(Files.readAllBytes(tokenFile), StandardCharsets.UTF_8).trim();
+            return (token.isEmpty() ? null : token);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void restrictToOwner(Path file) throws IOException {
+        if (isPosix(file) && !Files.getPosixFilePermissions(file).equals(PosixFilePermissions.fromString(TOKEN_FILE_PERMISSIONS))) {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString(TOKEN_FILE_PERMISSIONS));
+        }
+    }
+
+    private static boolean isPosix(Path file) {
+        return file.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    public int bind() throws IOException {
+        ServerSocket ss = new ServerSocket();
+        ss.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port));
+        ss.setSoTimeout((int) Math.min(Integer.MAX_VALUE, Math.max(1000, Math.min(this.idleTimeoutMillis, 60_000))));
+        this.serverSocket = ss;
+        return ss.getLocalPort();
+    }
+
+    public void serve() throws IOException {
+        if (this.serverSocket == null) bind();
+        SourceExtractor.warmUp();
+        this.lastActivity = System.currentTimeMillis();
+
+        ServerSocket ss = this.serverSocket;
+        try {
+            while (!ss.isClosed()) {
+                Socket client;
+                try {
+                    client = ss.accept();
+                } catch (SocketTimeoutException e) {
+                    if (this.activeConnections.get() == 0
+                            && System.currentTimeMillis() - this.lastActivity >= this.idleTimeoutMillis) {
+                        break;
+                    }
+                    continue;
+                } catch (IOException e) {
+                    if (ss.isClosed()) break;
+                    throw e;
+                }
+
+                this.activeConnections.incrementAndGet();
+                this.lastActivity = System.currentTimeMillis();
+                this.workers.execute(() -> handle(client));
+            }
+        } finally {
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        ServerSocket ss = this.serverSocket;
+        if (ss != null) {
+            try {
+                ss.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+        this.workers.shutdown();
+    }
+
+    private void handle(Socket client) {
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty()) continue;
+
+                JsonObject request;
+                try {
+                    request = JsonParser.parseString(line).getAsJsonObject();
+                } catch (RuntimeException e) {
+                    // not a client of ours, like a browser sending HTTP, so nothing else it sends gets processed
+                    break;
+                }
+
+                boolean authorized = isAuthorized(request);
+                JsonObject response;
+                if (!authorized) {
+                    response = response(request.get("id"), STATUS_UNAUTHORIZED, "Missing or wrong token", JsonNull.INSTANCE);
+                } else {
+                    try {
+                        response = process(request);
+                    } catch (RuntimeException e) {
+                        response = response(null, STATUS_BAD_REQUEST, e.toString(), JsonNull.INSTANCE);
+                    }
+                }
+
+                out.write(response.toString());
+                out.write('\n');
+                out.flush();
+                this.lastActivity = System.currentTimeMillis();
+
+                if (!authorized) break;
+                if (request.has("cmd") && CMD_SHUTDOWN.equals(request.get("cmd").getAsString())) {
+                    close();
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            this.lastActivity = System.currentTimeMillis();
+            this.activeConnections.decrementAndGet();
+        }
+    }
+
+    private boolean isAuthorized(JsonObject request) {
+        JsonElement token = request.get("token");
+        return token != null && token.isJsonPrimitive()
+                && MessageDigest.isEqual(this.token, token.getAsString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static JsonObject process(JsonObject request) {
+        JsonElement id = request.get("id");
+        String cmd = (request.has("cmd") ? request.get("cmd").getAsString() : null);
+        String path = (request.has("path") && !request.get("path").isJsonNull() ? request.get("path").getAsString() : null);
+
+        if (CMD_SHUTDOWN.equals(cmd)) {
+            return response(id, BatchSketchParser.STATUS_OK, null, JsonNull.INSTANCE);
+        }
+        if (path == null) {
+            return response(id, STATUS_BAD_REQUEST, "Missing path", JsonNull.INSTANCE);
+        }
+
+        if (CMD_PARSE.equals(cmd)) {
+            BatchSketchParser.Result result = BatchSketchParser.parseSketch(Paths.get(path));
+            JsonElement settings = (result.settings != null ? PROJECT_SETTINGS_ADAPTER.toJsonTree(result.settings) : JsonNull.INSTANCE);
+            return response(id, result.status, result.error, settings);
+        } else if (CMD_REV_PARSE.equals(cmd)) {
+            try {
+                String jsonData = new String(Files.readAllBytes(Paths.get(path)));
+                ProjectSettings projSettings = ProjectSettings.fromJSON(jsonData, LogProxy.silent());
+                if (projSettings == null || !projSettings.containsData()) {
+                    return response(id, STATUS_REV_PARSE_ERROR, "Unable to generate Drizzle markers from the JSON", JsonNull.INSTANCE);
+                }
+                return response(id, BatchSketchParser.STATUS_OK, null, new JsonPrimitive(projSettings.toString()));
+            } catch (IOException e) {
+                return response(id, STATUS_REV_PARSE_ERROR, e.toString(), JsonNull.INSTANCE);
+            }
+        } else if (CMD_SYNC.equals(cmd)) {
+            JsonElement json = request.get("json");
+            return sync(id, Paths.get(path), json != null && !json.isJsonNull() ? Paths.get(json.getAsString()) : null);
+        }
+
+        return response(id, STATUS_BAD_REQUEST, "Unknown command " + cmd, JsonNull.INSTANCE);
+    }
+
+    private static JsonObject sync(JsonElement id, Path sketch, Path json) {
+        if (Files.isDirectory(sketch)) {
+            sketch = sketch.resolve(sketch.getFileName().toString().concat(".ino"));
+        }
+        if (json == null) {
+            json = sketch.toAbsolutePath().resolveSibling("drizzle.json");
+        }
+
+        for (Path p : new Path[] { sketch, json }) {
+            if (!Files.isRegularFile(p)) {
+                return response(id, BatchSketchParser.STATUS_NOT_FOUND, "Cannot open file " + p, JsonNull.INSTANCE);
+            }
+        }
+
+        try {
+            ProjectSettings projSettings = ProjectSettings.fromJSON(new String(Files.readAllBytes(json)), LogProxy.silent());
+            if (projSettings == null || !projSettings.containsData()) {
+                return response(id, STATUS_REV_PARSE_ERROR, "Unable to generate Drizzle markers from the JSON", JsonNull.INSTANCE);
+            }
+
+            boolean updated = MarkerBlockSync.syncFile(sketch, projSettings, new SourceExtractor(null, LogProxy.silent()));
+            return response(id, BatchSketchParser.STATUS_OK, null, new JsonPrimitive(updated));
+        } catch (IllegalStateException e) {
+            return response(id, STATUS_SYNC_ERROR, e.getMessage(), JsonNull.INSTANCE);
+        } catch (IOException e) {
+            return response(id, BatchSketchParser.STATUS_READ_ERROR, e.toString(), JsonNull.INSTANCE);
+        }
+    }
+
+    private static JsonObject response(JsonElement id, int status, String error, JsonElement result) {
+        JsonObject response = new JsonObject();
+        response.add("id", id != null ? id : JsonNull.INSTANCE);
+        response.addProperty("status", status);
+        response.add("error", error != null ? new JsonPrimitive(error) : JsonNull.INSTANCE);
+        response.add("result", result);
+        return response;
+    }
+
+    public static JsonObject request(int port, String token, JsonObject request) {
+        request = request.deepCopy();
+        request.addProperty("token", token);
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            out.write(request.toString());
+            out.write('\n');
+            out.flush();
+            socket.shutdownOutput();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line = in.readLine();
+            return (line != null ? JsonParser.parseString(line).getAsJsonObject() : null);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public static boolean forward(int port, String cmd, String path, PrintStream stdout, PrintStream stderr) {
+        JsonObject request = new JsonObject();
+        request.addProperty("cmd", cmd);
+        request.addProperty("path", Paths.get(path).toAbsolutePath().toString());
+
+        String token = readToken(defaultTokenFile());
+        if (token == null) return false; // no daemon was started by this user
+
+        JsonObject response = request(port, token, request);
+        if (response == null || response.get("status").getAsInt() == STATUS_UNAUTHORIZED) return false;
+
+        int status = response.get("status").getAsInt();
+        if (status != BatchSketchParser.STATUS_OK) {
+            stderr.println(response.get("error").isJsonNull() ? "Error " + status : response.get("error").getAsString());
+            System.exit(status);
+        }
+
+        JsonElement result = response.get("result");
+        if (CMD_PARSE.equals(cmd)) {
+            stdout.println(PRETTY_GSON.toJson(result));
+        } else {
+            stdout.print(result.getAsString());
+        }
+        return true;
+    }
+}
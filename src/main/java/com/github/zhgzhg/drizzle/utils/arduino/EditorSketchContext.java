@@ -0,0 +1,68 @@
+package com.github.zhgzhg.drizzle.utils.arduino;
+
+import com.github.zhgzhg.drizzle.utils.source.SketchContext;
+import com.github.zhgzhg.drizzle.utils.source.SourceExtractor;
+import processing.app.Editor;
+import processing.app.EditorTab;
+import processing.app.SketchFile;
+
+import javax.swing.text.JTextComponent;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+public class EditorSketchContext implements SketchContext {
+    private final Editor editor;
+
+    public EditorSketchContext(final Editor editor) {
+        this.editor = editor;
+    }
+
+    @Override
+    public File getPrimarySketchFile() {
+        if (editor != null && editor.getSketch() != null) {
+            SketchFile primaryFile = editor.getSketch().getPrimaryFile();
+            if (primaryFile != null) {
+                return primaryFile.getFile();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<File> getSketchFiles() {
+        if (editor != null && editor.getSketch() != null && editor.getSketch().getFiles() != null) {
+            return editor.getSketch().getFiles().stream()
+                    .map(SketchFile::getFile)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList());
+        }
+        return Collections.emptyList();
+    }
+
+    public JTextComponent getPrimaryTabTextArea() {
+        if (editor == null || editor.getTabs() == null) return null;
+
+        for (EditorTab tab : editor.getTabs()) {
+            if (tab.getSketchFile() != null && tab.getSketchFile().isPrimary()) {
+                return tab.getTextArea();
+            }
+        }
+        return null;
+    }
+
+    public String loadSourceFromPrimarySketch() throws IOException {
+        if (editor != null) {
+            SketchFile primaryFile = editor.getSketch().getPrimaryFile();
+            if (primaryFile != null) {
+                return primaryFile.load();
+            } else {
+                editor.statusError(SourceExtractor.ERR_DETERMINING_PRIMARY_SKETCH_FILE);
+            }
+        }
+        return null;
+    }
+}
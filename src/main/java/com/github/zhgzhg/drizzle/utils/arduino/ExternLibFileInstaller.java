@@ -1,6 +1,7 @@
 package com.github.zhgzhg.drizzle.utils.arduino;
 
 import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+import com.github.zhgzhg.drizzle.utils.source.SourceExtractor;
 import com.github.zhgzhg.drizzle.utils.text.TextUtils;
 import processing.app.BaseNoGui;
 import processing.app.PreferencesData;
@@ -11,22 +12,29 @@ import processing.app.tools.ZipDeflater;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedHashSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Properties;
-import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 public class ExternLibFileInstaller<T> {
+    private static final Pattern LIBRARY_PROPERTIES_ZIP_ENTRY = Pattern.compile("^(?:[^/]+/)?library\\.properties$");
+    private static final Pattern DEPENDENCY_PATTERN = Pattern.compile("^(?<name>[^(]+?)\\s*(?:\\((?<version>[^)]*)\\))?$");
+
     private final LogProxy<T> logProxy;
-    private final Set<String> transitiveDependencies;
 
     public ExternLibFileInstaller(LogProxy<T> logProxy) {
         this.logProxy = logProxy;
-        this.transitiveDependencies = new LinkedHashSet<>();
     }
 
     public boolean installZipOrDirWithZips(File sourceFile) {
@@ -81,20 +89,6 @@ public class ExternLibFileInstaller<T> {
                 return false;
             }
 
-            if (libProp.exists()) {
-                try (InputStream propStream = Files.newInputStream(libProp.toPath(), StandardOpenOption.READ)) {
-                    Properties properties = new Properties();
-                    properties.load(propStream);
-                    List<String> dependencies = Arrays.stream(properties.getProperty("depends", "").split(",\\s*"))
-                            .filter(TextUtils::anyNotBlank)
-                            .collect(Collectors.toList());
-                    dependencies.remove("");
-                    this.transitiveDependencies.addAll(dependencies);
-                } catch (Exception e) {
-                    this.logProxy.cliErrorln(e);
-                }
-            }
-
             // copy folder
             File destinationFolder = new File(BaseNoGui.getSketchbookLibrariesFolder().folder, sourceFile.getName());
             if (destinationFolder.exists()) {
@@ -123,15 +117,74 @@ public class ExternLibFileInstaller<T> {
         return true;
     }
 
-    public void logSuccessfullyInstalledLib(String libName) {
-        this.logProxy.cliInfo("Successfully added library %s!%n", libName);
+    private static List<String> dependsOf(InputStream libraryProperties) throws IOException {
+        Properties properties = new Properties();
+        properties.load(libraryProperties);
+        List<String> dependencies = Arrays.stream(properties.getProperty("depends", "").split(",\\s*"))
+                .filter(TextUtils::anyNotBlank)
+                .collect(Collectors.toList());
+        dependencies.remove("");
+        return dependencies;
+    }
+
+    // reads library.properties without installing the library, like "depends=Servo (>=1.0.0), https://github.com/me/Lib.git"
+    public List<SourceExtractor.DependentLibrary> dependenciesOf(File zipOrDir) {
+        List<String> depends = Collections.emptyList();
+
+        try {
+            if (zipOrDir.isDirectory()) {
+                File libProp = new File(zipOrDir, "library.properties");
+                if (libProp.exists()) {
+                    try (InputStream propStream = Files.newInputStream(libProp.toPath(), StandardOpenOption.READ)) {
+                        depends = dependsOf(propStream);
+                    }
+                }
+            } else if (zipOrDir.isFile()) {
+                try (ZipFile zipFile = new ZipFile(zipOrDir)) {
+                    ZipEntry libProp = zipFile.stream()
+                            .filter(entry -> LIBRARY_PROPERTIES_ZIP_ENTRY.matcher(entry.getName()).matches())
+                            .min(Comparator.comparingInt(entry -> entry.getName().length()))
+                            .orElse(null);
+                    if (libProp != null) {
+                        try (InputStream propStream = zipFile.getInputStream(libProp)) {
+                            depends = dependsOf(propStream);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            this.logProxy.cliErrorln(e);
+        }
+
+        List<SourceExtractor.DependentLibrary> result = new ArrayList<>(depends.size());
+        for (String dependency : depends) {
+            try {
+                result.add(dependencyOf(dependency.trim()));
+            } catch (RuntimeException e) {
+                this.logProxy.cliError("Unsupported dependency '%s' of %s%n", dependency, zipOrDir.getName());
+            }
+        }
+        return result;
     }
 
-    public Set<String> getTransitiveDependencies() {
-        return transitiveDependencies;
+    static SourceExtractor.DependentLibrary dependencyOf(String dependency) {
+        if (dependency.contains("://")) {
+            String path = URI.create(dependency).getPath();
+            String name = (path != null ? TextUtils.rtrim(path, "/") : "");
+            name = name.substring(name.lastIndexOf('/') + 1).replaceFirst("(?i)\\.(zip|git)$", "");
+            return new SourceExtractor.DependentLibrary(name.isEmpty() ? dependency : name, dependency);
+        }
+
+        Matcher matcher = DEPENDENCY_PATTERN.matcher(dependency);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid dependency " + dependency);
+        }
+        String version = matcher.group("version");
+        return new SourceExtractor.DependentLibrary(matcher.group("name"),
+                (TextUtils.isNotNullOrBlank(version) ? version.trim() : "*"));
     }
 
-    public void cleanTransitiveDependenciesInfo() {
-        this.transitiveDependencies.clear();
+    public void logSuccessfullyInstalledLib(String libName) {
+        this.logProxy.cliInfo("Successfully added library %s!%n", libName);
     }
 }
@@ -0,0 +1,203 @@
+package com.github.zhgzhg.drizzle.utils.arduino;
+
+import com.github.zhgzhg.drizzle.utils.json.DrizzleLock;
+import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+import com.github.zhgzhg.drizzle.utils.text.TextUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+public class IndexFreshness {
+    public static final String STATE_FILE_NAME = "drizzle_index_state.properties";
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final String ETAG = ".etag";
+    private static final String LAST_MODIFIED = ".last_modified";
+    private static final String CHECKED_AT = ".checked_at";
+
+    private final File stateFile;
+    private final LogProxy logProxy;
+    private final Properties state = new Properties();
+    // path -> { "lastModified:length", sha256 } of the already hashed index files
+    private final Map<String, String[]> fileHashes = new HashMap<>();
+
+    public static class Check {
+        private final List<Entry> entries = new ArrayList<>();
+
+        public boolean isStale() {
+            return this.entries.stream().anyMatch(entry -> !entry.fresh);
+        }
+    }
+
+    private static class Entry {
+        final String url;
+        final File file;
+        final String stampBefore;
+        final boolean fresh;
+        final String etag;
+        final String lastModified;
+
+        Entry(final String url, final File file, final boolean fresh, final String etag, final String lastModified) {
+            this.url = url;
+            this.file = file;
+            this.stampBefore = stampOf(file);
+            this.fresh = fresh;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    public IndexFreshness(final File stateFile, final LogProxy logProxy) {
+        this.stateFile = stateFile;
+        this.logProxy = logProxy;
+
+        if (stateFile != null && stateFile.isFile()) {
+            try (InputStream in = Files.newInputStream(stateFile.toPath())) {
+                this.state.load(in);
+            } catch (IOException | IllegalArgumentException e) {
+                this.logProxy.cliError("Ignoring the unreadable %s - %s%n", stateFile, e.getMessage());
+            }
+        }
+    }
+
+    // an index is fresh if it was checked within the TTL, or if its server reports no change since the last download
+    public synchronized Check check(Map<String, File> indexFiles, long ttlMillis, boolean force) {
+        Check check = new Check();
+        long now = System.currentTimeMillis();
+
+        indexFiles.forEach((url, file) -> {
+            if (force || file == null || !file.isFile()) {
+                // without validators the index is always downloaded, but theirs get collected for the next checks
+                check.entries.add(conditionalCheck(url, file, null, null));
+                return;
+            }
+
+            long checkedAt = parseLong(this.state.getProperty(url + CHECKED_AT));
+            if (checkedAt <= now && now - checkedAt < ttlMillis) {
+                return; // nothing to record either, so the TTL does not get extended
+            }
+
+            check.entries.add(conditionalCheck(url, file, this.state.getProperty(url + ETAG),
+                    this.state.getProperty(url + LAST_MODIFIED)));
+        });
+
+        return check;
+    }
+
+    // remembers the validators of the indexes that were confirmed fresh, or got downloaded again after the check
+    public synchronized void record(Check check) {
+        String now = Long.toString(System.currentTimeMillis());
+        boolean changed = false;
+
+        for (Entry entry : check.entries) {
+            if (!entry.fresh && entry.stampBefore.equals(stampOf(entry.file))) {
+                continue; // the download did not happen
+            }
+
+            setOrRemove(entry.url + ETAG, entry.etag);
+            setOrRemove(entry.url + LAST_MODIFIED, entry.lastModified);
+            this.state.setProperty(entry.url + CHECKED_AT, now);
+            changed = true;
+        }
+
+        if (changed && this.stateFile != null) {
+            try (OutputStream out = Files.newOutputStream(this.stateFile.toPath())) {
+                this.state.store(out, "Drizzle index freshness");
+            } catch (IOException e) {
+                this.logProxy.cliError("Failed writing %s - %s%n", this.stateFile, e.getMessage());
+            }
+        }
+    }
+
+    // a combined SHA-256 of the files, rehashing only the ones modified since their last hashing
+    public synchronized String hashOf(Collection<File> files) {
+        StringBuilder sb = new StringBuilder();
+        for (File file : files) {
+            sb.append(file != null ? file.getPath() : "").append('=');
+            if (file == null || !file.isFile()) {
+                sb.append('\n');
+                continue;
+            }
+
+            String stamp = stampOf(file);
+            String[] hashed = this.fileHashes.get(file.getPath());
+            if (hashed == null || !hashed[0].equals(stamp)) {
+                try {
+                    hashed = new String[] { stamp, DrizzleLock.sha256Of(file) };
+                } catch (IOException e) {
+                    hashed = new String[] { stamp, stamp };
+                }
+                this.fileHashes.put(file.getPath(), hashed);
+            }
+            sb.append(hashed[1]).append('\n');
+        }
+        return DrizzleLock.sha256Of(sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Entry conditionalCheck(String url, File file, String etag, String lastModified) {
+        HttpURLConnection connection = null;
+        try {
+            URLConnection urlConnection = new URL(url).openConnection();
+            if (!(urlConnection instanceof HttpURLConnection)) {
+                return new Entry(url, file, false, null, null);
+            }
+
+            connection = (HttpURLConnection) urlConnection;
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(CONNECT_TIMEOUT_MILLIS);
+            if (TextUtils.isNotNullOrBlank(etag)) connection.setRequestProperty("If-None-Match", etag);
+            if (TextUtils.isNotNullOrBlank(lastModified)) connection.setRequestProperty("If-Modified-Since", lastModified);
+
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return new Entry(url, file, true, etag, lastModified);
+            }
+
+            String newEtag = connection.getHeaderField("ETag");
+            String newLastModified = connection.getHeaderField("Last-Modified");
+            boolean unchanged = (status == HttpURLConnection.HTTP_OK)
+                    && (TextUtils.isNotNullOrBlank(etag) ? etag.equals(newEtag)
+                        : TextUtils.isNotNullOrBlank(lastModified) && lastModified.equals(newLastModified));
+            return new Entry(url, file, unchanged, newEtag, newLastModified);
+        } catch (IOException | RuntimeException e) {
+            // let the regular index update deal with it
+            return new Entry(url, file, false, null, null);
+        } finally {
+            if (connection != null) connection.disconnect();
+        }
+    }
+
+    private void setOrRemove(String key, String value) {
+        if (value != null) {
+            this.state.setProperty(key, value);
+        } else {
+            this.state.remove(key);
+        }
+    }
+
+    private static String stampOf(File file) {
+        return (file != null && file.isFile() ? file.lastModified() + ":" + file.length() : "");
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return (value != null ? Long.parseLong(value) : 0L);
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+}
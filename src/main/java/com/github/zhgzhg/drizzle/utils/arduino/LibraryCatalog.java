@@ -0,0 +1,52 @@
+package com.github.zhgzhg.drizzle.utils.arduino;
+
+import cc.arduino.contributions.libraries.ContributedLibrary;
+import com.github.zhgzhg.drizzle.utils.semver.SemverUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+public class LibraryCatalog {
+    private final List<ContributedLibrary> libraries;
+    private final Map<String, List<ContributedLibrary>> librariesByName = new HashMap<>();
+
+    public LibraryCatalog(final List<ContributedLibrary> libraries) {
+        this.libraries = libraries;
+
+        for (ContributedLibrary lib : libraries) {
+            if (lib.getName() == null) continue;
+            this.librariesByName.computeIfAbsent(lib.getName(), name -> new ArrayList<>()).add(lib);
+        }
+
+        Comparator<ContributedLibrary> newestFirst = Comparator.comparing(ContributedLibrary::getParsedVersion, SemverUtils.NEWEST_FIRST);
+        this.librariesByName.values().forEach(versions -> versions.sort(newestFirst));
+    }
+
+    public boolean isBuiltFrom(final List<ContributedLibrary> libraries) {
+        return this.libraries == libraries;
+    }
+
+    public List<ContributedLibrary> candidatesOf(String libName) {
+        List<ContributedLibrary> candidates = this.librariesByName.get(libName);
+        if (candidates == null && libName.contains("_")) {
+            candidates = this.librariesByName.get(libName.replace("_", " "));
+        }
+        return (candidates != null ? Collections.unmodifiableList(candidates) : Collections.emptyList());
+    }
+
+    public static List<String> versionsOf(List<ContributedLibrary> candidates) {
+        return candidates.stream().map(ContributedLibrary::getParsedVersion).collect(Collectors.toList());
+    }
+
+    public ContributedLibrary pick(List<ContributedLibrary> candidates, String versionRange) {
+        String chosenVersion = SemverUtils.maxSatisfying(versionsOf(candidates), versionRange);
+        if (chosenVersion == null) return null;
+
+        return candidates.stream().filter(lib -> chosenVersion.equals(lib.getParsedVersion())).findFirst().orElse(null);
+    }
+}
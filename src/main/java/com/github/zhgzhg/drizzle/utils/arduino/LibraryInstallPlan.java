@@ -0,0 +1,63 @@
+package com.github.zhgzhg.drizzle.utils.arduino;
+
+import cc.arduino.contributions.libraries.ContributedLibrary;
+import com.github.gundy.semver4j.model.Version;
+import com.github.zhgzhg.drizzle.utils.semver.SemverUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+public class LibraryInstallPlan {
+    private final List<ContributedLibrary> satisfied = new ArrayList<>();
+    private final List<ContributedLibrary> toInstall = new ArrayList<>();
+    private final List<ContributedLibrary> toUpgrade = new ArrayList<>();
+    private final List<ContributedLibrary> batch = new ArrayList<>();
+
+    // installedVersionOf returns the version of the installed library with the given name, or null if there is none
+    public LibraryInstallPlan(final List<ContributedLibrary> chosenLibraries, final Function<String, String> installedVersionOf) {
+        for (ContributedLibrary lib : chosenLibraries) {
+            String installedVersion = installedVersionOf.apply(lib.getName());
+            if (installedVersion == null) {
+                this.toInstall.add(lib);
+                this.batch.add(lib);
+            } else if (isSameVersion(installedVersion, lib.getParsedVersion())) {
+                this.satisfied.add(lib);
+            } else {
+                this.toUpgrade.add(lib);
+                this.batch.add(lib);
+            }
+        }
+    }
+
+    public static boolean isSameVersion(String version1, String version2) {
+        if (version1 == null || version2 == null) return false;
+        if (version1.equals(version2)) return true;
+
+        Version ver1 = SemverUtils.tryParse(version1);
+        return ver1 != null && ver1.equals(SemverUtils.tryParse(version2));
+    }
+
+    // the chosen libraries already installed in the exact same version
+    public List<ContributedLibrary> getSatisfied() {
+        return satisfied;
+    }
+
+    public List<ContributedLibrary> getToInstall() {
+        return toInstall;
+    }
+
+    // the chosen libraries replacing an installed version of theirs
+    public List<ContributedLibrary> getToUpgrade() {
+        return toUpgrade;
+    }
+
+    // the libraries to install or upgrade, in the order they were chosen
+    public List<ContributedLibrary> getBatch() {
+        return batch;
+    }
+
+    public boolean isEmpty() {
+        return this.batch.isEmpty();
+    }
+}
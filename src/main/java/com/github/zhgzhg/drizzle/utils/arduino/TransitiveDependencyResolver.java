@@ -0,0 +1,153 @@
+package com.github.zhgzhg.drizzle.utils.arduino;
+
+import cc.arduino.contributions.libraries.ContributedLibrary;
+import cc.arduino.contributions.libraries.ContributedLibraryDependency;
+import com.github.zhgzhg.drizzle.utils.text.TextUtils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.stream.Collectors;
+
+public class TransitiveDependencyResolver {
+    private final LibraryCatalog catalog;
+    private final String architecture;
+    private final BiPredicate<String, String> isSatisfied;
+
+    public static class Dependency {
+        public final String name;
+        public final String versionRange;
+        public final String requiredBy;
+
+        public Dependency(final String name, final String versionRange, final String requiredBy) {
+            this.name = name;
+            this.versionRange = (TextUtils.isNotNullOrBlank(versionRange) ? versionRange : "*");
+            this.requiredBy = requiredBy;
+        }
+    }
+
+    public static class Resolution {
+        private final List<ContributedLibrary> libraries = new ArrayList<>();
+        private final Map<ContributedLibrary, Set<String>> introducedBy = new LinkedHashMap<>();
+        private final Map<String, Set<String>> unresolved = new LinkedHashMap<>();
+        private final List<String> cycles = new ArrayList<>();
+
+        // the requested libraries, followed by their transitive dependencies
+        public List<ContributedLibrary> getLibraries() {
+            return libraries;
+        }
+
+        public Map<ContributedLibrary, Set<String>> getIntroducedBy() {
+            return introducedBy;
+        }
+
+        // "name::version range" of the dependencies without a suitable version, and the libraries requiring them
+        public Map<String, Set<String>> getUnresolved() {
+            return unresolved;
+        }
+
+        public List<String> getCycles() {
+            return cycles;
+        }
+    }
+
+    // isSatisfied tells if a library with the given name and version range is already installed
+    public TransitiveDependencyResolver(final LibraryCatalog catalog, final String architecture,
+            final BiPredicate<String, String> isSatisfied) {
+
+        this.catalog = catalog;
+        this.architecture = architecture;
+        this.isSatisfied = isSatisfied;
+    }
+
+    public Resolution resolve(List<ContributedLibrary> requestedLibraries) {
+        return resolve(requestedLibraries, Collections.emptyList());
+    }
+
+    // the external dependencies are required by libraries outside of the index, like the ZIP and GIT ones
+    public Resolution resolve(List<ContributedLibrary> requestedLibraries, List<Dependency> externalDependencies) {
+        Resolution resolution = new Resolution();
+        Map<String, ContributedLibrary> chosen = new LinkedHashMap<>();
+        for (ContributedLibrary lib : requestedLibraries) {
+            if (chosen.putIfAbsent(lib.getName(), lib) == null) {
+                resolution.libraries.add(lib);
+            }
+        }
+
+        Set<String> requestedNames = new HashSet<>(chosen.keySet());
+        Set<String> expanded = new HashSet<>();
+        Deque<String> path = new ArrayDeque<>();
+        for (ContributedLibrary lib : requestedLibraries) {
+            visit(lib, chosen, requestedNames, expanded, path, resolution);
+        }
+        for (Dependency dependency : externalDependencies) {
+            resolve(dependency, chosen, requestedNames, expanded, path, resolution);
+        }
+
+        return resolution;
+    }
+
+    public boolean suitsArchitecture(ContributedLibrary lib) {
+        List<String> libArchitectures = lib.getArchitectures();
+        return this.architecture == null || libArchitectures == null || libArchitectures.isEmpty()
+                || libArchitectures.contains("*") || libArchitectures.contains(this.architecture);
+    }
+
+    private void visit(ContributedLibrary lib, Map<String, ContributedLibrary> chosen, Set<String> requestedNames,
+            Set<String> expanded, Deque<String> path, Resolution resolution) {
+
+        // every library gets expanded only once, no matter how many others depend on it
+        if (!expanded.add(lib.getName())) return;
+        path.addLast(lib.getName());
+
+        List<ContributedLibraryDependency> dependencies = lib.getDependencies();
+        for (ContributedLibraryDependency dependency : (dependencies != null ? dependencies : Collections.<ContributedLibraryDependency>emptyList())) {
+            if (TextUtils.isNullOrBlank(dependency.getName())) continue;
+            resolve(new Dependency(dependency.getName(), dependency.getVersion(), lib.getName()), chosen, requestedNames, expanded,
+                    path, resolution);
+        }
+
+        path.removeLast();
+    }
+
+    private void resolve(Dependency dependency, Map<String, ContributedLibrary> chosen, Set<String> requestedNames,
+            Set<String> expanded, Deque<String> path, Resolution resolution) {
+
+        if (path.contains(dependency.name)) {
+            resolution.cycles.add(String.join(" -> ", path) + " -> " + dependency.name);
+            return;
+        }
+
+        ContributedLibrary resolved = chosen.get(dependency.name);
+        if (resolved == null) {
+            if (this.isSatisfied.test(dependency.name, dependency.versionRange)) return;
+
+            List<ContributedLibrary> candidates = this.catalog.candidatesOf(dependency.name).stream()
+                    .filter(this::suitsArchitecture)
+                    .collect(Collectors.toList());
+
+            resolved = this.catalog.pick(candidates, dependency.versionRange);
+            if (resolved == null) {
+                resolution.unresolved.computeIfAbsent(dependency.name + "::" + dependency.versionRange, k -> new LinkedHashSet<>())
+                        .add(dependency.requiredBy);
+                return;
+            }
+
+            chosen.put(dependency.name, resolved);
+            resolution.libraries.add(resolved);
+        }
+
+        if (!requestedNames.contains(resolved.getName())) {
+            resolution.introducedBy.computeIfAbsent(resolved, k -> new LinkedHashSet<>()).add(dependency.requiredBy);
+        }
+        visit(resolved, chosen, requestedNames, expanded, path, resolution);
+    }
+}
@@ -4,6 +4,7 @@ import cc.arduino.view.NotificationPopup;
 import com.github.gundy.semver4j.model.Version;
 import com.github.zhgzhg.drizzle.DrizzleCLI;
 import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+import com.github.zhgzhg.drizzle.utils.semver.SemverUtils;
 import com.google.gson.GsonBuilder;
 import processing.app.BaseNoGui;
 import processing.app.Editor;
@@ -116,8 +117,8 @@ public class UpdateUtils {
 
     public static boolean isTheLatestVersion(LogProxy logProxy) {
         try {
-            Version latest = Version.fromString(latestVersion());
-            Version current = Version.fromString(DrizzleCLI.version());
+            Version latest = SemverUtils.parse(latestVersion());
+            Version current = SemverUtils.parse(DrizzleCLI.version());
 
             return current.compareTo(latest) >= 0;
         } catch (Exception e) {
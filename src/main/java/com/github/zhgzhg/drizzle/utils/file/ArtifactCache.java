@@ -0,0 +1,146 @@
+package com.github.zhgzhg.drizzle.utils.file;
+
+import com.github.zhgzhg.drizzle.utils.json.DrizzleLock;
+import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+public class ArtifactCache<T> {
+    public static final String DIR_NAME = "drizzle_cache";
+
+    private final File dir;
+    private final LogProxy<T> logProxy;
+
+    public ArtifactCache(final File dir, final LogProxy<T> logProxy) {
+        this.dir = dir;
+        this.logProxy = logProxy;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    public boolean contains(String url) {
+        return zipFileOf(url).isFile() || gitDirOf(url).isDirectory();
+    }
+
+    // a copy of the cached ZIP file, which the caller is free to remove
+    public File restoreZip(String url, String tempFileNamePostfix) {
+        File zip = zipFileOf(url);
+        if (!zip.isFile()) return null;
+
+        try {
+            File tempFile = Files.createTempFile("ard-drizzle-ext" + (tempFileNamePostfix != null ? tempFileNamePostfix : ""), ".zip")
+                    .toFile();
+            tempFile.deleteOnExit();
+            Files.copy(zip.toPath(), tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return tempFile;
+        } catch (IOException e) {
+            this.logProxy.cliError("Failed restoring the cached library %s - %s%n", url, e.getMessage());
+            return null;
+        }
+    }
+
+    // a copy of the cached repository, which the caller is free to remove
+    public FileUtils.RepoLibDir restoreGit(String url, String revision, String libName, String tempDirNamePostfix) {
+        Path cached = gitDirOf(url).toPath();
+        if (!Files.isDirectory(cached)) return null;
+
+        try {
+            Path tempDir = Files.createTempDirectory("ard-drizzle-ext" + (tempDirNamePostfix != null ? tempDirNamePostfix : ""));
+            tempDir.toFile().deleteOnExit();
+            Path libDir = tempDir.resolve(libName);
+            copyDir(cached, libDir);
+            return new FileUtils.RepoLibDir(url, revision, libName, libDir.toFile());
+        } catch (IOException e) {
+            this.logProxy.cliError("Failed restoring the cached git repo library %s - %s%n", url, e.getMessage());
+            return null;
+        }
+    }
+
+    public void storeZip(String url, File zip) {
+        if (zip == null || !zip.isFile()) return;
+
+        try {
+            Path target = zipFileOf(url).toPath();
+            Files.createDirectories(target.getParent());
+            Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+            try {
+                Files.copy(zip.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+                moveReplacing(temp, target);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            this.logProxy.cliError("Failed caching %s - %s%n", url, e.getMessage());
+        }
+    }
+
+    public void storeGit(String url, File repoDir) {
+        if (repoDir == null || !repoDir.isDirectory()) return;
+
+        Path target = gitDirOf(url).toPath();
+        FileUtils<T> fileUtils = new FileUtils<>(this.logProxy);
+        Path temp = null;
+        try {
+            Files.createDirectories(target.getParent());
+            temp = Files.createTempDirectory(target.getParent(), target.getFileName().toString());
+            copyDir(repoDir.toPath(), temp.resolve("repo"));
+
+            if (Files.exists(target)) fileUtils.removeDir(target);
+            moveReplacing(temp.resolve("repo"), target);
+        } catch (IOException e) {
+            this.logProxy.cliError("Failed caching %s - %s%n", url, e.getMessage());
+        } finally {
+            // the partial copies of the failed attempts do not pile up
+            if (temp != null && Files.exists(temp)) fileUtils.removeDir(temp);
+        }
+    }
+
+    private File zipFileOf(String url) {
+        return new File(new File(this.dir, "zip"), keyOf(url) + ".zip");
+    }
+
+    private File gitDirOf(String url) {
+        return new File(new File(this.dir, "git"), keyOf(url));
+    }
+
+    // the revision reference is part of the URL, so every one of them is cached separately
+    private static String keyOf(String url) {
+        return DrizzleLock.sha256Of(url.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void moveReplacing(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void copyDir(Path source, Path target) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                Files.copy(file, target.resolve(source.relativize(file).toString()), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.COPY_ATTRIBUTES);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,189 @@
+package com.github.zhgzhg.drizzle.utils.json;
+
+import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.SerializedName;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+public class DrizzleLock {
+    public static final String FILE_NAME = "drizzle.lock";
+
+    private static final String CHECKSUM_PREFIX = "SHA-256:";
+
+    private static final Gson PRETTY_GSON = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
+
+    public static class Artifact {
+        public final String name;
+        public final String version;
+        public final String url;
+        public final String sha256;
+
+        public Artifact(final String name, final String version, final String url, final String sha256) {
+            this.name = name;
+            this.version = version;
+            this.url = url;
+            this.sha256 = sha256;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Artifact artifact = (Artifact) o;
+            return Objects.equals(name, artifact.name) && Objects.equals(version, artifact.version)
+                    && Objects.equals(url, artifact.url) && Objects.equals(sha256, artifact.sha256);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, version, url, sha256);
+        }
+
+        @Override
+        public String toString() {
+            return "Artifact{" + "name='" + name + '\'' + ", version='" + version + '\'' + ", url='" + url + '\''
+                    + ", sha256='" + sha256 + '\'' + '}';
+        }
+    }
+
+    @SerializedName("markers_sha256")
+    private String markersSha256;
+    private Artifact platform;
+    private List<Artifact> libraries = new ArrayList<>();
+    private List<Artifact> tools = new ArrayList<>();
+
+    public DrizzleLock() {
+    }
+
+    public DrizzleLock(final ProjectSettings projectSettings) {
+        this.markersSha256 = markersSha256Of(projectSettings);
+    }
+
+    public String getMarkersSha256() {
+        return markersSha256;
+    }
+
+    public Artifact getPlatform() {
+        return platform;
+    }
+
+    public void setPlatform(final Artifact platform) {
+        this.platform = platform;
+    }
+
+    public List<Artifact> getLibraries() {
+        return libraries;
+    }
+
+    public List<Artifact> getTools() {
+        return tools;
+    }
+
+    // the lock is usable only while the markers it was resolved from stay the same
+    public boolean isLockOf(ProjectSettings projectSettings) {
+        return this.markersSha256 != null && this.markersSha256.equals(markersSha256Of(projectSettings));
+    }
+
+    public static String markersSha256Of(ProjectSettings projectSettings) {
+        return sha256Of(projectSettings.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    // the index checksums have the form "SHA-256:<hex>", the other algorithms are not recorded
+    public static String sha256OfChecksum(String checksum) {
+        if (checksum == null || !checksum.regionMatches(true, 0, CHECKSUM_PREFIX, 0, CHECKSUM_PREFIX.length())) return null;
+        return checksum.substring(CHECKSUM_PREFIX.length()).trim().toLowerCase();
+    }
+
+    public static String sha256Of(byte[] data) {
+        return hexOf(sha256Digest().digest(data));
+    }
+
+    public static String sha256Of(File file) throws IOException {
+        MessageDigest digest = sha256Digest();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return hexOf(digest.digest());
+    }
+
+    public static DrizzleLock read(File lockFile, LogProxy logger) {
+        if (lockFile == null || !lockFile.isFile()) return null;
+
+        try {
+            DrizzleLock lock = PRETTY_GSON.fromJson(new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8),
+                    DrizzleLock.class);
+            if (lock != null) {
+                if (lock.libraries == null) lock.libraries = new ArrayList<>();
+                if (lock.tools == null) lock.tools = new ArrayList<>();
+            }
+            return lock;
+        } catch (Exception e) {
+            logger.cliError("Ignoring the unreadable %s - %s%n", lockFile, e.getMessage());
+        }
+        return null;
+    }
+
+    // returns false when the file already has the same content
+    public boolean write(File lockFile) throws IOException {
+        String json = toJSON() + System.lineSeparator();
+        if (lockFile.isFile() && json.equals(new String(Files.readAllBytes(lockFile.toPath()), StandardCharsets.UTF_8))) {
+            return false;
+        }
+
+        Path target = lockFile.toPath().toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), FILE_NAME, ".tmp");
+        try {
+            Files.write(temp, json.getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+
+    public String toJSON() {
+        return PRETTY_GSON.toJson(this);
+    }
+
+    public boolean containsData() {
+        return this.platform != null || !this.libraries.isEmpty() || !this.tools.isEmpty();
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hexOf(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+}
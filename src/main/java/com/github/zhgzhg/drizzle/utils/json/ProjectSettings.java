@@ -6,15 +6,23 @@ import com.github.zhgzhg.drizzle.utils.text.TextUtils;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.SerializedName;
-import com.google.gson.reflect.TypeToken;
 
-import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 public class ProjectSettings {
+    // Gson instances are immutable and thread-safe
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(ProjectSettings.class, new ProjectSettingsTypeAdapter())
+            .create();
+
+    private static final Gson PRETTY_GSON = new GsonBuilder().disableHtmlEscaping().serializeNulls().setPrettyPrinting()
+            .registerTypeAdapter(ProjectSettings.class, new ProjectSettingsTypeAdapter())
+            .create();
+
     @SerializedName("board_manager")
     private SourceExtractor.BoardManager boardManager;
     private SourceExtractor.Board board;
@@ -79,6 +87,37 @@ public class ProjectSettings {
                 || arduinoIdeTools != null;
     }
 
+    // the markers themselves are immutable, only the collections holding them get copied
+    public ProjectSettings copy() {
+        ProjectSettings result = new ProjectSettings();
+        result.boardManager = this.boardManager;
+        result.board = this.board;
+
+        if (this.boardSettings != null) {
+            result.boardSettings = new ArrayList<>(this.boardSettings.size());
+            for (SourceExtractor.BoardSettings settings : this.boardSettings) {
+                SourceExtractor.BoardSettings settingsCopy = new SourceExtractor.BoardSettings(settings.board);
+                settings.clickableOptions.forEach(option -> settingsCopy.clickableOptions.add(new ArrayList<>(option)));
+                result.boardSettings.add(settingsCopy);
+            }
+        }
+
+        if (this.libraries != null) result.libraries = new LinkedHashMap<>(this.libraries);
+
+        if (this.preferences != null) {
+            result.preferences = new ArrayList<>(this.preferences.size());
+            for (SourceExtractor.Preferences prefs : this.preferences) {
+                SourceExtractor.Preferences prefsCopy = new SourceExtractor.Preferences(prefs.board);
+                prefsCopy.preferences.putAll(prefs.preferences);
+                result.preferences.add(prefsCopy);
+            }
+        }
+
+        if (this.arduinoIdeTools != null) result.arduinoIdeTools = new LinkedHashMap<>(this.arduinoIdeTools);
+
+        return result;
+    }
+
 
     @Override
     public String toString() {
@@ -147,32 +186,12 @@ public class ProjectSettings {
     }
 
     public static String toJSON(ProjectSettings projectSettings) {
-
-        Type dependentLibraryContainerType = new TypeToken<Map<String, SourceExtractor.DependentLibrary>>() { }.getType();
-        Type ardToolsContainerType = new TypeToken<Map<String, SourceExtractor.ArduinoTool>>() { }.getType();
-
-        Gson gson = new GsonBuilder().disableHtmlEscaping().serializeNulls().setPrettyPrinting()
-                .registerTypeAdapter(SourceExtractor.BoardSettings.class, new BoardSettingsSerializerCustomizer())
-                .registerTypeAdapter(dependentLibraryContainerType, new MapOfDependentLibrariesSerializerCustomizer())
-                .registerTypeAdapter(SourceExtractor.Preferences.class, new PreferencesSerializerCustomizer())
-                .registerTypeAdapter(ardToolsContainerType, new MapOfArduinoToolsSerializerCustomizer())
-                .create();
-        return gson.toJson(projectSettings);
+        return PRETTY_GSON.toJson(projectSettings, ProjectSettings.class);
     }
 
     public static ProjectSettings fromJSON(String json, LogProxy logger) {
-
-        Type dependentLibraryContainerType = new TypeToken<Map<String, SourceExtractor.DependentLibrary>>() { }.getType();
-        Type ardToolsContainerType = new TypeToken<Map<String, SourceExtractor.ArduinoTool>>() { }.getType();
-
-        Gson gson = new GsonBuilder()
-                .registerTypeAdapter(SourceExtractor.BoardSettings.class, new BoardSettingsSerializerCustomizer())
-                .registerTypeAdapter(dependentLibraryContainerType, new MapOfDependentLibrariesSerializerCustomizer())
-                .registerTypeAdapter(SourceExtractor.Preferences.class, new PreferencesSerializerCustomizer())
-                .registerTypeAdapter(ardToolsContainerType, new MapOfArduinoToolsSerializerCustomizer())
-                .create();
         try {
-            return gson.fromJson(json, ProjectSettings.class);
+            return GSON.fromJson(json, ProjectSettings.class);
         } catch (Exception ex) {
             logger.cliErrorln(ex);
         }
@@ -181,29 +200,6 @@ public class ProjectSettings {
     }
 
     public static ProjectSettings fromSource(SourceExtractor sourceExtractor, String source) {
-        SourceExtractor.BoardManager boardManager = sourceExtractor.dependentBoardManagerFromMainSketchSource(source);
-        SourceExtractor.Board board = sourceExtractor.dependentBoardFromMainSketchSource(source);
-        List<SourceExtractor.BoardSettings> boardSettings = sourceExtractor.dependentBoardClickableSettingsFromMainSketchSource(source);
-        Map<String, SourceExtractor.DependentLibrary> libraries = sourceExtractor.dependentLibsFromMainSketchSource(source);
-        List<SourceExtractor.Preferences> preferences = sourceExtractor.dependentPreferencesFromMainSketchSource(source);
-        List<SourceExtractor.ArduinoTool> arduinoTools = sourceExtractor.arduinoToolsFromMainSketchSource(source);
-
-        Map<String, SourceExtractor.ArduinoTool> arduinoToolsMap = null;
-        if (arduinoTools != null && !arduinoTools.isEmpty()) {
-            arduinoToolsMap = new LinkedHashMap<>();
-            for (SourceExtractor.ArduinoTool at : arduinoTools) {
-                arduinoToolsMap.put(at.name, at);
-            }
-        }
-
-        ProjectSettings projectSettings = new ProjectSettings();
-        projectSettings.setBoardManager(boardManager);
-        projectSettings.setBoard(board);
-        projectSettings.setBoardSettings(boardSettings);
-        projectSettings.setLibraries(libraries);
-        projectSettings.setPreferences(preferences);
-        projectSettings.setArduinoIdeTools(arduinoToolsMap);
-
-        return projectSettings;
+        return sourceExtractor.projectSettingsFromMainSketchSource(source);
     }
 }
@@ -0,0 +1,401 @@
+package com.github.zhgzhg.drizzle.utils.json;
+
+import com.github.zhgzhg.drizzle.utils.source.SourceExtractor;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ProjectSettingsTypeAdapter extends TypeAdapter<ProjectSettings> {
+
+    public static final String BOARD_MANAGER = "board_manager";
+    public static final String BOARD = "board";
+    public static final String BOARD_SETTINGS = "board_settings";
+    public static final String LIBRARIES = "libraries";
+    public static final String PREFERENCES = "preferences";
+    public static final String ARDUINO_IDE_TOOLS = "arduino_ide_tools";
+
+    public static final String CLICKABLE_OPTIONS = "clickable_options";
+    public static final String PROVIDER_PACKAGE = "providerPackage";
+    public static final String PLATFORM = "platform";
+    public static final String NAME = "name";
+    public static final String VERSION = "version";
+    public static final String URL = "url";
+    public static final String ARDUINO_CLI_FMT = "arduinoCliFmt";
+
+    @Override
+    public void write(final JsonWriter out, final ProjectSettings value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+
+        out.name(BOARD_MANAGER);
+        SourceExtractor.BoardManager boardManager = value.getBoardManager();
+        if (boardManager != null) {
+            out.beginObject();
+            out.name(PLATFORM).value(boardManager.platform);
+            out.name(VERSION).value(boardManager.version);
+            out.name(URL).value(boardManager.url);
+            out.endObject();
+        } else {
+            out.nullValue();
+        }
+
+        out.name(BOARD);
+        SourceExtractor.Board board = value.getBoard();
+        if (board != null) {
+            out.beginObject();
+            out.name(PROVIDER_PACKAGE).value(board.providerPackage);
+            out.name(PLATFORM).value(board.platform);
+            out.name(NAME).value(board.name);
+            out.endObject();
+        } else {
+            out.nullValue();
+        }
+
+        out.name(BOARD_SETTINGS);
+        if (value.getBoardSettings() != null) {
+            out.beginArray();
+            for (SourceExtractor.BoardSettings bs : value.getBoardSettings()) {
+                writeBoardSettings(out, bs);
+            }
+            out.endArray();
+        } else {
+            out.nullValue();
+        }
+
+        out.name(LIBRARIES);
+        if (value.getLibraries() != null) {
+            out.beginObject();
+            for (SourceExtractor.DependentLibrary lib : value.getLibraries().values()) {
+                out.name(lib.name).beginObject();
+                out.name(VERSION).value(lib.version);
+                out.name(ARDUINO_CLI_FMT).value(lib.arduinoCliFmt);
+                out.endObject();
+            }
+            out.endObject();
+        } else {
+            out.nullValue();
+        }
+
+        out.name(PREFERENCES);
+        if (value.getPreferences() != null) {
+            out.beginArray();
+            for (SourceExtractor.Preferences prefs : value.getPreferences()) {
+                writePreferences(out, prefs);
+            }
+            out.endArray();
+        } else {
+            out.nullValue();
+        }
+
+        out.name(ARDUINO_IDE_TOOLS);
+        if (value.getArduinoIdeTools() != null) {
+            out.beginObject();
+            for (SourceExtractor.ArduinoTool at : value.getArduinoIdeTools().values()) {
+                out.name(at.name).beginObject();
+                out.name(VERSION).value(at.version);
+                out.name(URL).value(at.url);
+                out.endObject();
+            }
+            out.endObject();
+        } else {
+            out.nullValue();
+        }
+
+        out.endObject();
+    }
+
+    private static void writeBoardSettings(JsonWriter out, SourceExtractor.BoardSettings bs) throws IOException {
+        if (bs == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name(BOARD).beginObject();
+        out.name(PLATFORM).value(wildcardIfEmpty(bs.board.platform));
+        out.name(NAME).value(wildcardIfEmpty(bs.board.name));
+        out.endObject();
+
+        out.name(CLICKABLE_OPTIONS).beginArray();
+        for (List<String> option : bs.clickableOptions) {
+            out.beginArray();
+            for (String s : option) {
+                out.value(s);
+            }
+            out.endArray();
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    private static void writePreferences(JsonWriter out, SourceExtractor.Preferences prefs) throws IOException {
+        if (prefs == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name(BOARD).beginObject();
+        out.name(PROVIDER_PACKAGE).value(wildcardIfEmpty(prefs.board.providerPackage));
+        out.name(PLATFORM).value(wildcardIfEmpty(prefs.board.platform));
+        out.name(NAME).value(wildcardIfEmpty(prefs.board.name));
+        out.endObject();
+
+        out.name(PREFERENCES).beginObject();
+        for (Map.Entry<String, String> entry : prefs.preferences.entrySet()) {
+            out.name(entry.getKey()).value(entry.getValue());
+        }
+        out.endObject();
+        out.endObject();
+    }
+
+    private static String wildcardIfEmpty(String value) {
+        return (value == null || value.isEmpty() ? "*" : value);
+    }
+
+    @Override
+    public ProjectSettings read(final JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        ProjectSettings result = new ProjectSettings();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+
+            switch (name) {
+                case BOARD_MANAGER:
+                    result.setBoardManager(readBoardManager(in));
+                    break;
+                case BOARD:
+                    result.setBoard(readBoard(in));
+                    break;
+                case BOARD_SETTINGS:
+                    List<SourceExtractor.BoardSettings> boardSettings = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        boardSettings.add(readBoardSettings(in));
+                    }
+                    in.endArray();
+                    result.setBoardSettings(boardSettings);
+                    break;
+                case LIBRARIES:
+                    result.setLibraries(readLibraries(in));
+                    break;
+                case PREFERENCES:
+                    List<SourceExtractor.Preferences> preferences = new ArrayList<>();
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        preferences.add(readPreferences(in));
+                    }
+                    in.endArray();
+                    result.setPreferences(preferences);
+                    break;
+                case ARDUINO_IDE_TOOLS:
+                    result.setArduinoIdeTools(readArduinoTools(in));
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        return result;
+    }
+
+    private static SourceExtractor.BoardManager readBoardManager(JsonReader in) throws IOException {
+        String platform = null, version = null, url = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case PLATFORM: platform = readString(in); break;
+                case VERSION: version = readString(in); break;
+                case URL: url = readString(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+
+        return new SourceExtractor.BoardManager(platform, version, url);
+    }
+
+    private static SourceExtractor.Board readBoard(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        String providerPackage = null, platform = null, name = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case PROVIDER_PACKAGE: providerPackage = readString(in); break;
+                case PLATFORM: platform = readString(in); break;
+                case NAME: name = readString(in); break;
+                default: in.skipValue();
+            }
+        }
+        in.endObject();
+
+        return new SourceExtractor.Board(providerPackage, platform, name);
+    }
+
+    private static SourceExtractor.BoardSettings readBoardSettings(JsonReader in) throws IOException {
+        SourceExtractor.Board board = null;
+        List<List<String>> clickableOptions = new ArrayList<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case BOARD:
+                    board = readBoard(in);
+                    break;
+                case CLICKABLE_OPTIONS:
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        List<String> option = new ArrayList<>();
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            option.add(readString(in));
+                        }
+                        in.endArray();
+                        clickableOptions.add(option);
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (board == null) {
+            throw new JsonParseException("Missing '" + BOARD + "' in '" + BOARD_SETTINGS + "' at " + in.getPath());
+        }
+
+        SourceExtractor.BoardSettings result = new SourceExtractor.BoardSettings(board);
+        result.clickableOptions.addAll(clickableOptions);
+        return result;
+    }
+
+    private static SourceExtractor.Preferences readPreferences(JsonReader in) throws IOException {
+        SourceExtractor.Board board = null;
+        Map<String, String> preferences = new LinkedHashMap<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case BOARD:
+                    board = readBoard(in);
+                    break;
+                case PREFERENCES:
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        preferences.put(in.nextName(), readString(in));
+                    }
+                    in.endObject();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+
+        if (board == null) {
+            throw new JsonParseException("Missing '" + BOARD + "' in '" + PREFERENCES + "' at " + in.getPath());
+        }
+
+        SourceExtractor.Preferences result = new SourceExtractor.Preferences(board);
+        result.preferences.putAll(preferences);
+        return result;
+    }
+
+    private static Map<String, SourceExtractor.DependentLibrary> readLibraries(JsonReader in) throws IOException {
+        Map<String, SourceExtractor.DependentLibrary> result = new LinkedHashMap<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            String version = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                if (VERSION.equals(in.nextName())) {
+                    version = readString(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            if (version == null) {
+                throw new JsonParseException("Missing '" + VERSION + "' of library '" + name + "' at " + in.getPath());
+            }
+            result.put(name, new SourceExtractor.DependentLibrary(name, version));
+        }
+        in.endObject();
+
+        return result;
+    }
+
+    private static Map<String, SourceExtractor.ArduinoTool> readArduinoTools(JsonReader in) throws IOException {
+        Map<String, SourceExtractor.ArduinoTool> result = new LinkedHashMap<>();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            String version = null, url = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case VERSION: version = readString(in); break;
+                    case URL: url = readString(in); break;
+                    default: in.skipValue();
+                }
+            }
+            in.endObject();
+
+            if (version == null || url == null) {
+                throw new JsonParseException("Missing '" + VERSION + "' or '" + URL + "' of tool '" + name + "' at " + in.getPath());
+            }
+            result.put(name, new SourceExtractor.ArduinoTool(name, version, url));
+        }
+        in.endObject();
+
+        return result;
+    }
+
+    private static String readString(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case NULL:
+                in.nextNull();
+                return null;
+            case BOOLEAN:
+                return Boolean.toString(in.nextBoolean());
+            default:
+                return in.nextString();
+        }
+    }
+}
@@ -16,6 +16,21 @@ public class LogProxy<T> {
     private static final PrintStream dummyPrintStream = new PrintStream(
             new OutputStream() { @Override public void write(final int b) throws IOException { }}) { };
 
+    private static final LogProxy<Object> silentLogProxy = new LogProxy<Object>() {
+        @Override
+        public PrintStream stderr() { return stdnull(); }
+
+        @Override
+        public PrintStream stdout() { return stdnull(); }
+
+        @Override
+        public PrintStream stdwarn() { return stdnull(); }
+    };
+
+    // discards the CLI output, for callers reporting the results through status codes and responses
+    @SuppressWarnings("unchecked")
+    public static <T> LogProxy<T> silent() { return (LogProxy<T>) silentLogProxy; }
+
     public interface EditorConsoleSupplierAndSetter<T> extends Supplier<T>, Runnable {
 
     }
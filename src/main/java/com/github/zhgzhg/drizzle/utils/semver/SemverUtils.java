@@ -0,0 +1,111 @@
+package com.github.zhgzhg.drizzle.utils.semver;
+
+import com.github.gundy.semver4j.model.Version;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class SemverUtils {
+    public static final int MAX_CACHED_ENTRIES = 65536;
+
+    // the newest versions first, the unparsable ones last
+    public static final Comparator<String> NEWEST_FIRST = (v1, v2) -> {
+        Version ver1 = tryParse(v1);
+        Version ver2 = tryParse(v2);
+        if (ver1 == null || ver2 == null) return (ver1 == null ? (ver2 == null ? 0 : 1) : -1);
+        return ver2.compareTo(ver1);
+    };
+
+    private static final Object UNPARSABLE = new Object();
+
+    private static final Map<String, Object> PARSED_VERSIONS = new ConcurrentHashMap<>();
+    private static final Map<Map.Entry<String, String>, Boolean> SATISFIED_RANGES = new ConcurrentHashMap<>();
+    private static final Map<Map.Entry<String, List<String>>, Optional<String>> CHOSEN_VERSIONS = new ConcurrentHashMap<>();
+
+    private SemverUtils() {
+        throw new UnsupportedOperationException("Not intended for instantiation");
+    }
+
+    public static Version parse(String version) {
+        Object parsed = PARSED_VERSIONS.get(version);
+        if (parsed instanceof Version) return (Version) parsed;
+
+        // unparsable versions are parsed again, so the caller gets the original exception
+        Version result = Version.fromString(version);
+        cache(PARSED_VERSIONS, version, result);
+        return result;
+    }
+
+    public static Version tryParse(String version) {
+        if (version == null) return null;
+
+        Object parsed = PARSED_VERSIONS.get(version);
+        if (parsed == null) {
+            try {
+                parsed = Version.fromString(version);
+            } catch (Exception e) {
+                parsed = UNPARSABLE;
+            }
+            cache(PARSED_VERSIONS, version, parsed);
+        }
+        return (parsed instanceof Version ? (Version) parsed : null);
+    }
+
+    public static boolean satisfies(String version, String range) {
+        if (version == null || range == null) return false;
+
+        Map.Entry<String, String> key = new AbstractMap.SimpleImmutableEntry<>(version, range);
+        Boolean satisfied = SATISFIED_RANGES.get(key);
+        if (satisfied == null) {
+            Version parsed = tryParse(version);
+            try {
+                satisfied = (parsed != null && parsed.satisfies(range));
+            } catch (Exception e) {
+                satisfied = false;
+            }
+            cache(SATISFIED_RANGES, key, satisfied);
+        }
+        return satisfied;
+    }
+
+    // unlike SemVer.maxSatisfying returns the candidate as it was given, skipping the unparsable ones
+    public static String maxSatisfying(Collection<String> candidates, String range) {
+        if (candidates == null || candidates.isEmpty() || range == null) return null;
+
+        Map.Entry<String, List<String>> key = new AbstractMap.SimpleImmutableEntry<>(range, new ArrayList<>(candidates));
+        Optional<String> chosen = CHOSEN_VERSIONS.get(key);
+        if (chosen == null) {
+            List<Version> versions = new ArrayList<>(key.getValue().size());
+            for (String candidate : key.getValue()) {
+                Version version = tryParse(candidate);
+                if (version != null) versions.add(version);
+            }
+
+            chosen = Optional.empty();
+            try {
+                // parses the range only once
+                Version chosenVersion = Version.maxVersionSatisfying(versions, range);
+                if (chosenVersion != null) {
+                    chosen = key.getValue().stream().filter(candidate -> chosenVersion.equals(tryParse(candidate))).findFirst();
+                }
+            } catch (Exception e) {
+                // an invalid range is satisfied by nothing
+            }
+            cache(CHOSEN_VERSIONS, key, chosen);
+        }
+        return chosen.orElse(null);
+    }
+
+    private static <K, V> void cache(Map<K, V> cache, K key, V value) {
+        if (cache.size() >= MAX_CACHED_ENTRIES) {
+            cache.clear();
+        }
+        cache.put(key, value);
+    }
+}
@@ -0,0 +1,304 @@
+package com.github.zhgzhg.drizzle.utils.source;
+
+import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class MarkerBlockSync {
+
+    private static final List<String> SYNCED_MARKERS = Arrays.asList(SourceExtractor.BOARDMANAGER_MARKER,
+            SourceExtractor.BOARDNAME_MARKER, SourceExtractor.BOARDSETTINGS_MARKER, SourceExtractor.DEPENDSON_MARKER,
+            SourceExtractor.PREFERENCES_MARKER, SourceExtractor.ARDUINOTOOL_MARKER);
+
+    // a marker on its own line inside a // comment or inside a /* */ block, like the ones generated by --rev-parse
+    private static final Pattern REPLACEABLE_MARKER_LINE = Pattern.compile("^(?<prefix>[ \\t]*(?://+|\\*+)?[ \\t]*)(?<marker>@\\p{L}+\\s.*?)\\s*$");
+    private static final Pattern SPACER_LINE = Pattern.compile("^[ \\t]*(?://+|\\*+)?[ \\t]*$");
+
+    public static class Edit {
+        public final int start;
+        public final int end;
+        public final String replacement;
+
+        public Edit(final int start, final int end, final String replacement) {
+            this.start = start;
+            this.end = end;
+            this.replacement = replacement;
+        }
+
+        public String applyTo(String source) {
+            return source.substring(0, start) + replacement + source.substring(end);
+        }
+    }
+
+    private static class Line {
+        final int start;
+        final int end; // including the line break
+        final String text;
+
+        Line(final int start, final int end, final String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+
+    // returns null when the marker comments of the source already match the project settings
+    public static Edit markerBlockEdit(String source, ProjectSettings projectSettings, SourceExtractor sourceExtractor)
+            throws IOException {
+        List<String> wantedMarkers = markersOf(projectSettings);
+        String lineBreak = lineBreakOf(source);
+
+        Set<String> commentLines = new HashSet<>();
+        for (String comment : sourceExtractor.extractAllCommentsFromSource(source)) {
+            for (String commentLine : SourceExtractor.NEW_LINE_SPLITTER.split(comment)) {
+                commentLines.add(commentLine.trim());
+            }
+        }
+
+        List<Line> lines = linesOf(source);
+        int first = -1, last = -1;
+        List<String> existingMarkers = new ArrayList<>();
+        for (int i = 0; i < lines.size(); ++i) {
+            String text = lines.get(i).text;
+            if (isSyncedMarkerLine(text) && commentLines.contains(text.trim())) {
+                if (first < 0) first = i;
+                last = i;
+                existingMarkers.add(text.substring(text.indexOf('@')).trim());
+            }
+        }
+
+        if (existingMarkers.equals(wantedMarkers)) {
+            return null;
+        }
+
+        if (first < 0) {
+            StringBuilder sb = new StringBuilder("/*").append(lineBreak);
+            appendMarkerBlock(sb, wantedMarkers, " * ", " *", lineBreak);
+            sb.append(" */").append(lineBreak).append(lineBreak);
+            return new Edit(0, 0, sb.toString());
+        }
+
+        // the lines between the synced markers may hold other markers and plain text of the same comment, which stay in
+        // place, and split the markers into runs
+        List<Integer> runStarts = new ArrayList<>();
+        Map<String, Integer> runOfGroup = new HashMap<>();
+        List<String> runPrefixes = new ArrayList<>();
+        String spacer = null;
+        boolean inRun = false;
+        for (int i = first; i <= last; ++i) {
+            String text = lines.get(i).text;
+            Matcher matcher = REPLACEABLE_MARKER_LINE.matcher(text);
+            boolean commentLine = commentLines.contains(text.trim()) && !text.contains("/*") && !text.contains("*/");
+            if (isSyncedMarkerLine(text) && matcher.matches() && commentLine) {
+                if (!inRun) {
+                    runStarts.add(i);
+                    runPrefixes.add(matcher.group("prefix"));
+                    inRun = true;
+                }
+                runOfGroup.putIfAbsent(markerGroupOf(text.substring(text.indexOf('@')).trim()), runStarts.size() - 1);
+            } else if (SPACER_LINE.matcher(text).matches()) {
+                if (spacer == null) spacer = text;
+            } else if (commentLine && !isSyncedMarkerLine(text)) {
+                inRun = false;
+            } else {
+                throw new IllegalStateException(String.format(
+                        "The marker comments must be placed on separate lines of a single comment block, see line %d: %s",
+                        i + 1, text));
+            }
+        }
+
+        // each wanted marker goes where the markers of its group were, or after the marker preceding it
+        List<List<String>> runMarkers = new ArrayList<>();
+        for (int i = 0; i < runStarts.size(); ++i) {
+            runMarkers.add(new ArrayList<>());
+        }
+        int run = 0;
+        for (String marker : wantedMarkers) {
+            run = runOfGroup.getOrDefault(markerGroupOf(marker), run);
+            runMarkers.get(run).add(marker);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        run = -1;
+        int lastMarker = first;
+        for (int i = first; i <= last; ++i) {
+            Line line = lines.get(i);
+            if (run + 1 < runStarts.size() && runStarts.get(run + 1) == i) {
+                ++run;
+                appendMarkerBlock(sb, runMarkers.get(run), runPrefixes.get(run), spacer, lineBreak);
+                lastMarker = i;
+                while (lastMarker < last && !isKeptLine(lines.get(lastMarker + 1).text)) {
+                    ++lastMarker;
+                }
+                // the spacers after the last marker of the run separate it from the kept text
+                while (lastMarker > i && !isSyncedMarkerLine(lines.get(lastMarker).text)) {
+                    --lastMarker;
+                }
+            } else if (i > lastMarker || isKeptLine(line.text)) {
+                sb.append(source, line.start, line.end);
+            }
+        }
+
+        int end = lines.get(last).end;
+        if (end == lines.get(last).start + lines.get(last).text.length() && sb.length() >= lineBreak.length()
+                && sb.substring(sb.length() - lineBreak.length()).equals(lineBreak)) {
+            // the last marker was on the last line without a line break
+            sb.setLength(sb.length() - lineBreak.length());
+        }
+
+        return new Edit(lines.get(first).start, end, sb.toString());
+    }
+
+    // a comment line between the synced markers, which is neither a synced marker nor a spacer
+    private static boolean isKeptLine(String line) {
+        return !isSyncedMarkerLine(line) && !SPACER_LINE.matcher(line).matches();
+    }
+
+    public static boolean syncFile(Path sketch, ProjectSettings projectSettings, SourceExtractor sourceExtractor) throws IOException {
+        return syncFile(sketch, projectSettings, sourceExtractor, Charset.defaultCharset());
+    }
+
+    // streams the unchanged parts of the file, and replaces it only if the marker comments differ
+    public static boolean syncFile(Path sketch, ProjectSettings projectSettings, SourceExtractor sourceExtractor, Charset charset)
+            throws IOException {
+
+        // the byte offsets of the edit are found by encoding the text before it, which gives the original bytes only if
+        // the whole file is valid in the charset
+        String source;
+        try {
+            source = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(Files.readAllBytes(sketch)))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException(String.format("%s is not valid %s text, so it cannot be synced safely", sketch, charset));
+        }
+
+        Edit edit = markerBlockEdit(source, projectSettings, sourceExtractor);
+        if (edit == null) return false;
+
+        ByteBuffer replacement;
+        try {
+            replacement = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .encode(CharBuffer.wrap(edit.replacement));
+        } catch (CharacterCodingException e) {
+            throw new IllegalStateException(String.format("The markers cannot be written as %s text into %s", charset, sketch));
+        }
+
+        long byteStart = source.substring(0, edit.start).getBytes(charset).length;
+        long byteEnd = byteStart + source.substring(edit.start, edit.end).getBytes(charset).length;
+
+        Path parent = sketch.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, sketch.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel in = FileChannel.open(sketch, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+                transferFully(in, 0, byteStart, out);
+                while (replacement.hasRemaining()) {
+                    out.write(replacement);
+                }
+                transferFully(in, byteEnd, in.size() - byteEnd, out);
+            }
+
+            try {
+                Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(sketch));
+            } catch (UnsupportedOperationException e) {
+                // not a POSIX file system
+            }
+
+            try {
+                Files.move(temp, sketch, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, sketch, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        return true;
+    }
+
+    private static void transferFully(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        while (count > 0) {
+            long transferred = in.transferTo(position, count, out);
+            if (transferred <= 0) throw new IOException("Unexpected end of file");
+            position += transferred;
+            count -= transferred;
+        }
+    }
+
+    private static List<String> markersOf(ProjectSettings projectSettings) {
+        List<String> result = new ArrayList<>();
+        for (String line : SourceExtractor.NEW_LINE_SPLITTER.split(projectSettings.toString())) {
+            if (!line.trim().isEmpty()) result.add(line.trim());
+        }
+        return result;
+    }
+
+    private static boolean isSyncedMarkerLine(String line) {
+        return SYNCED_MARKERS.contains(SourceExtractor.markerKeywordOf(line));
+    }
+
+    private static void appendMarkerBlock(StringBuilder sb, List<String> markers, String prefix, String spacer, String lineBreak) {
+        String previousGroup = null;
+        for (String marker : markers) {
+            String group = markerGroupOf(marker);
+            if (spacer != null && previousGroup != null && !previousGroup.equals(group)) {
+                sb.append(spacer).append(lineBreak);
+            }
+            sb.append(prefix).append(marker).append(lineBreak);
+            previousGroup = group;
+        }
+    }
+
+    private static String markerGroupOf(String marker) {
+        String keyword = SourceExtractor.markerKeywordOf(marker);
+        // the board related markers are kept together
+        if (SourceExtractor.BOARDMANAGER_MARKER.equals(keyword) || SourceExtractor.BOARDSETTINGS_MARKER.equals(keyword)) {
+            return SourceExtractor.BOARDNAME_MARKER;
+        }
+        return keyword;
+    }
+
+    private static String lineBreakOf(String source) {
+        int lf = source.indexOf('\n');
+        return (lf > 0 && source.charAt(lf - 1) == '\r' ? "\r\n" : "\n");
+    }
+
+    private static List<Line> linesOf(String source) {
+        List<Line> result = new ArrayList<>();
+        int start = 0;
+        while (start < source.length()) {
+            int lf = source.indexOf('\n', start);
+            int end = (lf < 0 ? source.length() : lf + 1);
+            int textEnd = (lf < 0 ? end : (lf > start && source.charAt(lf - 1) == '\r' ? lf - 1 : lf));
+            result.add(new Line(start, end, source.substring(start, textEnd)));
+            start = end;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,197 @@
+package com.github.zhgzhg.drizzle.utils.source;
+
+import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+public class MarkerEditTracker {
+
+    // characters which can start, end, or hide a comment, or form a marker
+    private static final String MARKER_RELEVANT_EDIT_CHARS = "@/*\"'#\\\r\n";
+    private static final String MARKER_RELEVANT_LINE_CHARS = "@\"'";
+
+    private final Supplier<JTextComponent> textComponentSupplier;
+    private final SourceExtractor sourceExtractor;
+
+    private final DocumentListener documentListener = new DocumentListener() {
+        @Override
+        public void insertUpdate(final DocumentEvent e) {
+            onInsert(e);
+        }
+
+        @Override
+        public void removeUpdate(final DocumentEvent e) {
+            onRemove(e);
+        }
+
+        @Override
+        public void changedUpdate(final DocumentEvent e) {
+            // attribute changes only
+        }
+    };
+
+    private final PropertyChangeListener documentReplacedListener = evt -> {
+        if (evt.getOldValue() instanceof Document) {
+            ((Document) evt.getOldValue()).removeDocumentListener(this.documentListener);
+        }
+        if (evt.getNewValue() instanceof Document) {
+            track((Document) evt.getNewValue());
+        }
+    };
+
+    private JTextComponent textComponent;
+    private final StringBuilder shadow = new StringBuilder();
+    private boolean shadowInSync;
+    private long generation;
+
+    private ProjectSettings projectSettings;
+    private long projectSettingsGeneration = -1;
+    private List<File> externalInputs = Collections.emptyList();
+    private String externalInputsStamp;
+
+    public MarkerEditTracker(final Supplier<JTextComponent> textComponentSupplier, final SourceExtractor sourceExtractor) {
+        this.textComponentSupplier = textComponentSupplier;
+        this.sourceExtractor = sourceExtractor;
+    }
+
+    public ProjectSettings projectSettings() {
+        JTextComponent component = attach();
+        if (component == null) return null;
+
+        long expectedGeneration;
+        synchronized (this) {
+            if (this.projectSettings != null && this.projectSettingsGeneration == this.generation
+                    && ProjectSettingsCache.stampOf(this.externalInputs).equals(this.externalInputsStamp)) {
+                return this.projectSettings;
+            }
+            expectedGeneration = this.generation;
+        }
+
+        String source = component.getText();
+        List<File> inputs = this.sourceExtractor.externalInputsOf(source);
+        String inputsStamp = ProjectSettingsCache.stampOf(inputs);
+        ProjectSettings result = this.sourceExtractor.projectSettingsFromMainSketchSource(source);
+
+        synchronized (this) {
+            if (expectedGeneration == this.generation) {
+                if (!this.shadowInSync) {
+                    // no edits happened since the text was read
+                    this.shadow.setLength(0);
+                    this.shadow.append(source);
+                    this.shadowInSync = true;
+                }
+                this.projectSettings = result;
+                this.projectSettingsGeneration = expectedGeneration;
+                this.externalInputs = inputs;
+                this.externalInputsStamp = inputsStamp;
+            }
+        }
+
+        return result;
+    }
+
+    public synchronized void invalidate() {
+        ++this.generation;
+    }
+
+    private synchronized JTextComponent attach() {
+        JTextComponent component = this.textComponentSupplier.get();
+        if (component != this.textComponent) {
+            if (this.textComponent != null) {
+                this.textComponent.removePropertyChangeListener("document", this.documentReplacedListener);
+                this.textComponent.getDocument().removeDocumentListener(this.documentListener);
+            }
+            this.textComponent = component;
+            if (component != null) {
+                component.addPropertyChangeListener("document", this.documentReplacedListener);
+                track(component.getDocument());
+            }
+        }
+        return component;
+    }
+
+    private synchronized void track(Document document) {
+        // the shadow copy is (re)built lazily by the thread that mutates the document, to not wait on its lock here
+        document.removeDocumentListener(this.documentListener);
+        document.addDocumentListener(this.documentListener);
+        this.shadowInSync = false;
+        ++this.generation;
+    }
+
+    private void resync(Document document) {
+        this.shadow.setLength(0);
+        try {
+            this.shadow.append(document.getText(0, document.getLength()));
+            this.shadowInSync = true;
+        } catch (BadLocationException e) {
+            this.shadowInSync = false;
+        }
+        ++this.generation;
+    }
+
+    private synchronized void onInsert(DocumentEvent e) {
+        int offset = e.getOffset();
+
+        String inserted;
+        try {
+            inserted = e.getDocument().getText(offset, e.getLength());
+        } catch (BadLocationException ex) {
+            resync(e.getDocument());
+            return;
+        }
+
+        if (!this.shadowInSync || offset > this.shadow.length()) {
+            resync(e.getDocument());
+            return;
+        }
+
+        if (isMarkerRelevantEdit(inserted, offset)) {
+            ++this.generation;
+        }
+        this.shadow.insert(offset, inserted);
+    }
+
+    private synchronized void onRemove(DocumentEvent e) {
+        int offset = e.getOffset();
+        int end = offset + e.getLength();
+        if (!this.shadowInSync || end > this.shadow.length()) {
+            resync(e.getDocument());
+            return;
+        }
+
+        if (isMarkerRelevantEdit(this.shadow.substring(offset, end), offset)) {
+            ++this.generation;
+        }
+        this.shadow.delete(offset, end);
+    }
+
+    private boolean isMarkerRelevantEdit(String editedText, int offset) {
+        for (int i = 0; i < editedText.length(); ++i) {
+            if (MARKER_RELEVANT_EDIT_CHARS.indexOf(editedText.charAt(i)) >= 0) return true;
+        }
+
+        // the edit is within a single line, which could contain a marker or change the meaning of a literal
+        int lineStart = offset;
+        while (lineStart > 0 && !isLineBreak(this.shadow.charAt(lineStart - 1))) {
+            --lineStart;
+        }
+        for (int i = lineStart; i < this.shadow.length() && !isLineBreak(this.shadow.charAt(i)); ++i) {
+            if (MARKER_RELEVANT_LINE_CHARS.indexOf(this.shadow.charAt(i)) >= 0) return true;
+        }
+
+        return false;
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r';
+    }
+}
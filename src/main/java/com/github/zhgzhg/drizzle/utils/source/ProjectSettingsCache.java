@@ -0,0 +1,116 @@
+package com.github.zhgzhg.drizzle.utils.source;
+
+import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ProjectSettingsCache {
+    public static final int DEFAULT_CAPACITY = 16;
+
+    private final Map<String, ProjectSettings> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ProjectSettingsCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ProjectSettingsCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The cache capacity must be positive");
+        }
+
+        this.entries = new LinkedHashMap<String, ProjectSettings>(capacity + 1, 1.0f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, ProjectSettings> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static String keyOf(String source, File drizzleJsonFile) {
+        return keyOf(source, drizzleJsonFile, Collections.emptyList());
+    }
+
+    public static String keyOf(String source, File drizzleJsonFile, List<File> markerSourceFiles) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder sb = new StringBuilder(96);
+        if (source != null) {
+            for (byte b : digest.digest(source.getBytes(StandardCharsets.UTF_8))) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+        }
+
+        sb.append('|');
+        if (drizzleJsonFile != null && drizzleJsonFile.exists()) {
+            sb.append(drizzleJsonFile.getAbsolutePath()).append('=').append(drizzleJsonFile.lastModified()).append(':')
+                    .append(drizzleJsonFile.length());
+        }
+
+        sb.append(stampOf(markerSourceFiles));
+
+        return sb.toString();
+    }
+
+    public static String stampOf(List<File> files) {
+        StringBuilder sb = new StringBuilder();
+        if (files != null) {
+            for (File file : files) {
+                sb.append('|').append(file.getPath()).append('=').append(file.lastModified()).append(':').append(file.length());
+            }
+        }
+        return sb.toString();
+    }
+
+    // every caller gets its own copy, so changing it does not affect the later cache hits
+    public synchronized ProjectSettings get(String key) {
+        ProjectSettings result = this.entries.get(key);
+        if (result != null) {
+            this.hits.incrementAndGet();
+            return result.copy();
+        }
+        this.misses.incrementAndGet();
+        return null;
+    }
+
+    public synchronized void put(String key, ProjectSettings projectSettings) {
+        if (key != null && projectSettings != null) {
+            this.entries.put(key, projectSettings.copy());
+        }
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ProjectSettingsCache{size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + '}';
+    }
+}
@@ -0,0 +1,10 @@
+package com.github.zhgzhg.drizzle.utils.source;
+
+import java.io.File;
+import java.util.List;
+
+public interface SketchContext {
+    File getPrimarySketchFile();
+
+    List<File> getSketchFiles();
+}
@@ -5,25 +5,26 @@ import com.github.zhgzhg.drizzle.parser.CPP14Lexer;
 import com.github.zhgzhg.drizzle.parser.CPP14Parser;
 import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
 import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+import com.github.zhgzhg.drizzle.utils.semver.SemverUtils;
 import com.github.zhgzhg.drizzle.utils.text.TextUtils;
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.annotations.SerializedName;
 import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.Token;
-import processing.app.Editor;
-import processing.app.SketchFile;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -31,6 +32,13 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -46,6 +54,8 @@ public class SourceExtractor {
     public static final String BOARDSETTINGS_MARKER = "@BoardSettings";
     public static final String PREFERENCES_MARKER = "@Preferences";
     public static final String ARDUINOTOOL_MARKER = "@ArduinoTool";
+    public static final String HEADERSCAN_MARKER = "@HeaderScan";
+    public static final String MARKERSOURCES_MARKER = "@MarkerSources";
 
 
     public static final String PACKAGE_PROVIDER_GROUP = "package";
@@ -57,6 +67,16 @@ public class SourceExtractor {
     public static final String BOARD_GROUP = "board";
     public static final String MENU_GROUP = "boardmenu";
     public static final String PREFDEF_GROUP = "prefdef";
+    public static final String TOKENS_GROUP = "tokens";
+    public static final String BYTES_GROUP = "bytes";
+    public static final String SOURCES_GROUP = "sources";
+
+    public static final String TABS_MARKER_SOURCE = "tabs";
+    public static final List<String> SKETCH_TAB_EXTENSIONS = Collections.unmodifiableList(
+            Arrays.asList("ino", "pde", "h", "hh", "hpp", "c", "cc", "cpp", "cxx", "S"));
+
+    public static final String HEADER_SCAN_JSON_KEY = "header_scan";
+    public static final String OFFLINE_JSON_KEY = "offline";
 
 
     public static final Pattern NEW_LINE_SPLITTER = Pattern.compile("\\R+");
@@ -79,8 +99,46 @@ public class SourceExtractor {
     public static final Pattern ARDUINO_TOOL_VERSION = Pattern.compile("^[^@]*"
             + ARDUINOTOOL_MARKER + "\\s+(?<" + TOOL_GROUP + ">[^:]+)::(?<"+ VER_GROUP + ">[^:]+)::(?<" + URL_GROUP + ">.+)$");
 
-    private Editor editor;
+    public static final Pattern HEADER_SCAN = Pattern.compile("^[^@]*"
+            + HEADERSCAN_MARKER + "\\s+(?<" + TOKENS_GROUP + ">\\*|\\d+)(::(?<" + BYTES_GROUP + ">\\*|\\d+))?\\s*$");
+
+    public static final Pattern MARKER_SOURCES = Pattern.compile("^[^@]*"
+            + MARKERSOURCES_MARKER + "\\s+(?<" + SOURCES_GROUP + ">.+)$");
+
+    private static final String WARM_UP_SOURCE = "#include <Arduino.h>\n"
+            + "#define LED_PIN 13\n"
+            + "/* @BoardManager esp8266::^2.6.3::https://localhost/package_index.json\n"
+            + " * @Board esp8266::NodeMCU 1.0 (ESP-12E Module)\n"
+            + " * @BoardSettings esp8266::NodeMCU 1.0 (ESP-12E Module)::Flash Frequency->40MHz||Flash Mode->QIO\n"
+            + " * @DependsOn Lib::(>= 1.0.8 && < 1.0.16)\n"
+            + " * @DependsOn ZipLib::https://localhost/lib.zip\n"
+            + " * @Preferences *::*::compiler.cpp.extra_flags=-DX||key=val\n"
+            + " * @ArduinoTool Tool::(<=0.2)::file:///tool.zip */\n"
+            + "// @DependsOn OtherLib::1.0.0\n"
+            + "static const uint8_t table[] PROGMEM = { 0x01, 0b10, 077, 1'000, 'a', L'b' };\n"
+            + "const char *s = u8\"text\\n\", *r = R\"x(raw)x\";\n"
+            + "template <typename T> class A : public B<T> { public: virtual ~A() noexcept override = default; };\n"
+            + "void setup() { for (int i = 0; i < 10 && !done; ++i) { x += i * 2.5e-3f >> 1; } }\n"
+            + "void loop() { if (a->b != c::d) return; else while (--n) switch (n) { case 1: break; } }\n";
+
+    private static final ThreadLocal<CPP14Lexer> REUSABLE_LEXER = ThreadLocal.withInitial(() -> new CPP14Lexer(new ANTLRInputStream("")));
+
+    private static final Pattern INVALID_MARKER = Pattern.compile("^[^@]*@\\p{L}+\\s?$");
+
+    private static final Pattern MARKER_LIKE = Pattern.compile(String.join("|", BOARDMANAGER_MARKER, BOARDSETTINGS_MARKER,
+            BOARDNAME_MARKER, DEPENDSON_MARKER, PREFERENCES_MARKER, ARDUINOTOOL_MARKER, MARKERSOURCES_MARKER));
+
+    public enum CommentScannerType {
+        ANTLR_LEXER,
+        STREAMING
+    }
+
+    private SketchContext sketchContext;
     private File drizzleJsonFile;
+    private CommentScannerType commentScannerType = CommentScannerType.ANTLR_LEXER;
+    private ProjectSettingsCache projectSettingsCache;
+    private File primarySketchFile;
+    private HeaderScan headerScan;
 
     private LogProxy logProxy;
 
@@ -209,7 +267,7 @@ public class SourceExtractor {
                 if (TextUtils.isNullOrBlank(version) || "*".equals(TextUtils.trim(version," ()"))) {
                     this.arduinoCliFmt = name;
                 } else {
-                    Version parsedVer = Version.fromString(version);
+                    Version parsedVer = SemverUtils.parse(version);
                     this.arduinoCliFmt = name + "@" + parsedVer.getMajor() + "." + parsedVer.getMinor() + "." + parsedVer.getPatch()
                             + (parsedVer.getBuildIdentifiers().isEmpty() ? "" : parsedVer.getBuildIdentifiers().stream()
                             .map(Version.Identifier::toString).collect(Collectors.joining(".", "+", "")));
@@ -247,17 +305,107 @@ public class SourceExtractor {
         }
     }
 
-    public SourceExtractor(Editor editor, LogProxy logProxy) {
-        this.editor = editor;
+    public static class HeaderScan {
+        @SerializedName("max_tokens")
+        public final int maxTokens;
+        @SerializedName("max_bytes")
+        public final int maxBytes;
+
+        public HeaderScan(final int maxTokens, final int maxBytes) {
+            this.maxTokens = maxTokens;
+            this.maxBytes = maxBytes;
+        }
+
+        public boolean isEnabled() {
+            return maxTokens > 0 || maxBytes > 0;
+        }
+
+        @Override
+        public String toString() {
+            return "HeaderScan{" + "maxTokens=" + maxTokens + ", maxBytes=" + maxBytes + '}';
+        }
+    }
+
+    private static class HeaderScanLimiter implements StreamingCommentScanner.ScanLimiter {
+        private HeaderScan headerScan;
+
+        HeaderScanLimiter(HeaderScan headerScan) {
+            this.headerScan = headerScan;
+        }
+
+        void onComment(String comment) {
+            if (!comment.contains(HEADERSCAN_MARKER)) return;
+
+            for (String commentLine : NEW_LINE_SPLITTER.split(comment)) {
+                Matcher matcher = HEADER_SCAN.matcher(commentLine);
+                if (matcher.matches()) {
+                    this.headerScan = new HeaderScan(parseLimit(matcher.group(TOKENS_GROUP)), parseLimit(matcher.group(BYTES_GROUP)));
+                }
+            }
+        }
+
+        private static int parseLimit(String limit) {
+            if (limit == null || "*".equals(limit)) return 0;
+            try {
+                return Integer.parseInt(limit);
+            } catch (NumberFormatException e) {
+                return Integer.MAX_VALUE;
+            }
+        }
+
+        @Override
+        public boolean shouldStop(final int codeTokens, final int position) {
+            HeaderScan hs = this.headerScan;
+            return hs != null && ((hs.maxTokens > 0 && codeTokens >= hs.maxTokens) || (hs.maxBytes > 0 && position >= hs.maxBytes));
+        }
+    }
+
+    public SourceExtractor(SketchContext sketchContext, LogProxy logProxy) {
+        this.sketchContext = sketchContext;
         this.logProxy = logProxy;
         this.locateDrizzleJsonFile();
     }
 
+    public CommentScannerType getCommentScannerType() {
+        return commentScannerType;
+    }
+
+    public void setCommentScannerType(final CommentScannerType commentScannerType) {
+        this.commentScannerType = (commentScannerType != null ? commentScannerType : CommentScannerType.ANTLR_LEXER);
+    }
+
+    public ProjectSettingsCache getProjectSettingsCache() {
+        return projectSettingsCache;
+    }
+
+    public void setProjectSettingsCache(final ProjectSettingsCache projectSettingsCache) {
+        this.projectSettingsCache = projectSettingsCache;
+    }
+
+    public HeaderScan getHeaderScan() {
+        return headerScan;
+    }
+
+    public void setHeaderScan(final HeaderScan headerScan) {
+        this.headerScan = headerScan;
+    }
+
+    public File getPrimarySketchFile() {
+        if (this.primarySketchFile == null && sketchContext != null) {
+            return sketchContext.getPrimarySketchFile();
+        }
+        return this.primarySketchFile;
+    }
+
+    public void setPrimarySketchFile(final File primarySketchFile) {
+        this.primarySketchFile = primarySketchFile;
+    }
+
     private boolean locateDrizzleJsonFile() {
-        if (this.drizzleJsonFile == null && editor != null && editor.getSketch() != null) {
-            SketchFile primaryFile = editor.getSketch().getPrimaryFile();
+        if (this.drizzleJsonFile == null && sketchContext != null) {
+            File primaryFile = sketchContext.getPrimarySketchFile();
             if (primaryFile != null) {
-                Path containingDir = primaryFile.getFile().toPath().getParent();
+                Path containingDir = primaryFile.toPath().getParent();
                 this.drizzleJsonFile = new File(containingDir.toFile(), "drizzle.json");
             }
         }
@@ -265,107 +413,201 @@ public class SourceExtractor {
         return this.drizzleJsonFile != null && this.drizzleJsonFile.exists();
     }
 
-    public static String loadSourceFromPrimarySketch(Editor editor) throws IOException {
-        if (editor != null) {
-            SketchFile primaryFile = editor.getSketch().getPrimaryFile();
-            if (primaryFile != null) {
-                return primaryFile.load();
-            } else {
-                editor.statusError(ERR_DETERMINING_PRIMARY_SKETCH_FILE);
-            }
+    private String readDrizzleJson() {
+        if (!locateDrizzleJsonFile()) return null;
+
+        try {
+            return new String(Files.readAllBytes(this.drizzleJsonFile.toPath()));
+        } catch (IOException ex) {
+            logProxy.cliErrorln(ex);
         }
+
         return null;
     }
 
     public ProjectSettings loadAllFromDrizzleJson() {
-        if (!locateDrizzleJsonFile()) return null;
+        String json = readDrizzleJson();
+        return (json != null ? ProjectSettings.fromJSON(json, this.logProxy) : null);
+    }
 
+    private ProjectSettings loadMarkerSettingsFromDrizzleJson() {
+        ProjectSettings projectSettings = this.loadAllFromDrizzleJson();
+        return (projectSettings != null && projectSettings.containsData() ? projectSettings : null);
+    }
+
+    private HeaderScan headerScanFromDrizzleJson(String json) {
         try {
-            String json = new String(Files.readAllBytes(this.drizzleJsonFile.toPath()));
-            return ProjectSettings.fromJSON(json, this.logProxy);
-        } catch (IOException ex) {
+            JsonElement root = JsonParser.parseString(json);
+            if (root.isJsonObject() && root.getAsJsonObject().has(HEADER_SCAN_JSON_KEY)) {
+                return new Gson().fromJson(root.getAsJsonObject().get(HEADER_SCAN_JSON_KEY), HeaderScan.class);
+            }
+        } catch (Exception ex) {
             logProxy.cliErrorln(ex);
         }
 
         return null;
     }
 
-    public Board dependentBoardFromMainSketchSource(String source) {
-        ProjectSettings projectSettings = this.loadAllFromDrizzleJson();
-        if (projectSettings != null) {
-            return projectSettings.getBoard();
-        }
+    public boolean isOfflineInDrizzleJson() {
+        String json = readDrizzleJson();
+        if (json == null) return false;
 
         try {
-            Map<String, Map<String, String>> boardPlatformAndNames = extractMarkersKeyAndParams(extractAllCommentsFromSource(source), BOARD,
-                    BOARDNAME_MARKER, PACKAGE_PROVIDER_GROUP, Arrays.asList(PLATFORM_GROUP, BOARD_GROUP),
-                    parsedParams -> null
-            );
+            JsonElement root = JsonParser.parseString(json);
+            if (root.isJsonObject() && root.getAsJsonObject().has(OFFLINE_JSON_KEY)) {
+                return root.getAsJsonObject().get(OFFLINE_JSON_KEY).getAsBoolean();
+            }
+        } catch (Exception ex) {
+            logProxy.cliErrorln(ex);
+        }
 
-            Board result = null;
+        return false;
+    }
 
-            for (Iterator<Map.Entry<String, Map<String, String>>> iter = boardPlatformAndNames.entrySet().iterator(); iter.hasNext(); ) {
-                Map.Entry<String, Map<String, String>> next = iter.next();
-                String providerPackage = next.getKey();
-                Map<String, String> boardCandidate = next.getValue();
-                String platformName = boardCandidate.get(PLATFORM_GROUP);
-                String boardName = boardCandidate.get(BOARD_GROUP);
+    public List<File> externalInputsOf(String source) {
+        List<File> result = new ArrayList<>();
+        this.locateDrizzleJsonFile();
+        if (this.drizzleJsonFile != null) {
+            result.add(this.drizzleJsonFile);
+        }
+        result.addAll(markerSourceFiles(markerSourcesLinesOf(source), false));
+        return result;
+    }
 
+    public ProjectSettings projectSettingsFromMainSketchSource(String source) {
+        ProjectSettingsCache cache = this.projectSettingsCache;
+        if (cache == null) {
+            return parseProjectSettings(source);
+        }
 
-                if (result == null && TextUtils.allNotBlank(platformName, boardName)) {
-                    result = new Board(providerPackage, platformName, boardName);
-                } else {
-                    this.logProxy.cliError("Ignoring additional %s %s::%s::%s%n", BOARDNAME_MARKER, providerPackage,
-                            platformName, boardName);
-                }
-            }
+        this.locateDrizzleJsonFile();
+        String key = ProjectSettingsCache.keyOf(source, this.drizzleJsonFile,
+                markerSourceFiles(markerSourcesLinesOf(source), false));
 
-            return result;
+        ProjectSettings projectSettings = cache.get(key);
+        if (projectSettings == null) {
+            projectSettings = parseProjectSettings(source);
+            cache.put(key, projectSettings);
+        }
+
+        return projectSettings;
+    }
+
+    private ProjectSettings parseProjectSettings(String source) {
+        String drizzleJson = this.readDrizzleJson();
+        ProjectSettings projectSettings = (drizzleJson != null ? ProjectSettings.fromJSON(drizzleJson, this.logProxy) : null);
+        if (projectSettings != null && projectSettings.containsData()) {
+            return assembleProjectSettings(
+                    projectSettings.getBoardManager(),
+                    projectSettings.getBoard(),
+                    (projectSettings.getBoardSettings() != null ? projectSettings.getBoardSettings() : Collections.emptyList()),
+                    (projectSettings.getLibraries() != null ? projectSettings.getLibraries() : Collections.emptyMap()),
+                    (projectSettings.getPreferences() != null ? projectSettings.getPreferences() : Collections.emptyList()),
+                    (projectSettings.getArduinoIdeTools() != null
+                            ? new ArrayList<>(projectSettings.getArduinoIdeTools().values()) : Collections.emptyList())
+            );
+        }
+
+        HeaderScan effectiveHeaderScan = (drizzleJson != null ? headerScanFromDrizzleJson(drizzleJson) : null);
+        if (effectiveHeaderScan == null) {
+            effectiveHeaderScan = this.headerScan;
+        }
+
+        Map<String, List<String>> markerLines = Collections.emptyMap();
+        try {
+            markerLines = routeCommentLinesByMarker(commentLinesOf(extractHeaderCommentsFromSource(source, effectiveHeaderScan)));
         } catch (IOException e) {
             this.logProxy.cliErrorln(e);
         }
 
-        return null;
+        List<File> markerSourceFiles = markerSourceFiles(markerLines.getOrDefault(MARKERSOURCES_MARKER, Collections.emptyList()), true);
+        if (!markerSourceFiles.isEmpty()) {
+            markerLines = mergeMarkerLines(markerLines, routeMarkerSourceFiles(markerSourceFiles, effectiveHeaderScan));
+        }
+
+        return assembleProjectSettings(
+                boardManagerFromCommentLines(markerLines.getOrDefault(BOARDMANAGER_MARKER, Collections.emptyList())),
+                boardFromCommentLines(markerLines.getOrDefault(BOARDNAME_MARKER, Collections.emptyList())),
+                boardClickableSettingsFromCommentLines(markerLines.getOrDefault(BOARDSETTINGS_MARKER, Collections.emptyList())),
+                libsFromCommentLines(markerLines.getOrDefault(DEPENDSON_MARKER, Collections.emptyList())),
+                preferencesFromCommentLines(markerLines.getOrDefault(PREFERENCES_MARKER, Collections.emptyList())),
+                arduinoToolsFromCommentLines(markerLines.getOrDefault(ARDUINOTOOL_MARKER, Collections.emptyList()))
+        );
     }
 
-    public List<BoardSettings> dependentBoardClickableSettingsFromMainSketchSource(String source) {
-        ProjectSettings projectSettings = this.loadAllFromDrizzleJson();
+    private static ProjectSettings assembleProjectSettings(BoardManager boardManager, Board board, List<BoardSettings> boardSettings,
+            Map<String, DependentLibrary> libraries, List<Preferences> preferences, List<ArduinoTool> arduinoTools) {
+
+        Map<String, ArduinoTool> arduinoToolsMap = null;
+        if (arduinoTools != null && !arduinoTools.isEmpty()) {
+            arduinoToolsMap = new LinkedHashMap<>();
+            for (ArduinoTool at : arduinoTools) {
+                arduinoToolsMap.put(at.name, at);
+            }
+        }
+
+        ProjectSettings projectSettings = new ProjectSettings();
+        projectSettings.setBoardManager(boardManager);
+        projectSettings.setBoard(board);
+        projectSettings.setBoardSettings(boardSettings);
+        projectSettings.setLibraries(libraries);
+        projectSettings.setPreferences(preferences);
+        projectSettings.setArduinoIdeTools(arduinoToolsMap);
+
+        return projectSettings;
+    }
+
+    public Board dependentBoardFromMainSketchSource(String source) {
+        ProjectSettings projectSettings = this.loadMarkerSettingsFromDrizzleJson();
         if (projectSettings != null) {
-            List<BoardSettings> boardSettings = projectSettings.getBoardSettings();
-            return (boardSettings != null ? boardSettings : Collections.emptyList());
+            return projectSettings.getBoard();
         }
 
         try {
-            Map<String, Map<String, String>> boardAndClickableSettings = extractMarkersKeyAndParams(
-                    extractAllCommentsFromSource(source), BOARD_SETTINGS, BOARDSETTINGS_MARKER, PLATFORM_GROUP,
-                    Arrays.asList(BOARD_GROUP, MENU_GROUP)
-            );
+            return boardFromCommentLines(commentLinesOf(extractAllCommentsFromSource(source)));
+        } catch (IOException e) {
+            this.logProxy.cliErrorln(e);
+        }
 
-            List<BoardSettings> result = new ArrayList<>(boardAndClickableSettings.size());
-            boardAndClickableSettings.forEach((platformName, boardStuff) -> {
-                String boardName = boardStuff.get(BOARD_GROUP);
-                Board board = new Board(null, !platformName.equals("*") ? platformName : null, !"*".equals(boardName) ? boardName : null);
-                BoardSettings boardSettings = new BoardSettings(board);
+        return null;
+    }
 
-                String menus = boardStuff.get(MENU_GROUP);
-                if (menus == null && menus.isEmpty()) return;
+    private Board boardFromCommentLines(List<String> commentLines) {
+        Map<String, Map<String, String>> boardPlatformAndNames = extractMarkersKeyAndParams(commentLines, BOARD,
+                BOARDNAME_MARKER, PACKAGE_PROVIDER_GROUP, Arrays.asList(PLATFORM_GROUP, BOARD_GROUP),
+                parsedParams -> null
+        );
 
-                List<String> menusToClick = Arrays.stream(menus.split("\\|\\|")).collect(Collectors.toCollection(ArrayList::new));
-                int lastItemIdx = menusToClick.size() - 1;
-                if (menusToClick.get(lastItemIdx) == null || menusToClick.get(lastItemIdx).isEmpty()) {
-                    menusToClick.remove(lastItemIdx);
-                }
-                if (menusToClick.isEmpty()) return;
+        Board result = null;
 
-                for (String mc : menusToClick) {
-                    List<String> path = Arrays.asList(mc.split("->"));
-                    boardSettings.clickableOptions.add(path);
-                }
+        for (Iterator<Map.Entry<String, Map<String, String>>> iter = boardPlatformAndNames.entrySet().iterator(); iter.hasNext(); ) {
+            Map.Entry<String, Map<String, String>> next = iter.next();
+            String providerPackage = next.getKey();
+            Map<String, String> boardCandidate = next.getValue();
+            String platformName = boardCandidate.get(PLATFORM_GROUP);
+            String boardName = boardCandidate.get(BOARD_GROUP);
 
-                result.add(boardSettings);
-            });
 
-            return result;
+            if (result == null && TextUtils.allNotBlank(platformName, boardName)) {
+                result = new Board(providerPackage, platformName, boardName);
+            } else {
+                this.logProxy.cliError("Ignoring additional %s %s::%s::%s%n", BOARDNAME_MARKER, providerPackage,
+                        platformName, boardName);
+            }
+        }
+
+        return result;
+    }
+
+    public List<BoardSettings> dependentBoardClickableSettingsFromMainSketchSource(String source) {
+        ProjectSettings projectSettings = this.loadMarkerSettingsFromDrizzleJson();
+        if (projectSettings != null) {
+            List<BoardSettings> boardSettings = projectSettings.getBoardSettings();
+            return (boardSettings != null ? boardSettings : Collections.emptyList());
+        }
+
+        try {
+            return boardClickableSettingsFromCommentLines(commentLinesOf(extractAllCommentsFromSource(source)));
         } catch (IOException e) {
             this.logProxy.cliErrorln(e);
         }
@@ -373,144 +615,179 @@ public class SourceExtractor {
         return Collections.emptyList();
     }
 
+    private List<BoardSettings> boardClickableSettingsFromCommentLines(List<String> commentLines) {
+        Map<String, Map<String, String>> boardAndClickableSettings = extractMarkersKeyAndParams(
+                commentLines, BOARD_SETTINGS, BOARDSETTINGS_MARKER, PLATFORM_GROUP,
+                Arrays.asList(BOARD_GROUP, MENU_GROUP)
+        );
+
+        List<BoardSettings> result = new ArrayList<>(boardAndClickableSettings.size());
+        boardAndClickableSettings.forEach((platformName, boardStuff) -> {
+            String boardName = boardStuff.get(BOARD_GROUP);
+            Board board = new Board(null, !platformName.equals("*") ? platformName : null, !"*".equals(boardName) ? boardName : null);
+            BoardSettings boardSettings = new BoardSettings(board);
+
+            String menus = boardStuff.get(MENU_GROUP);
+            if (menus == null && menus.isEmpty()) return;
+
+            List<String> menusToClick = Arrays.stream(menus.split("\\|\\|")).collect(Collectors.toCollection(ArrayList::new));
+            int lastItemIdx = menusToClick.size() - 1;
+            if (menusToClick.get(lastItemIdx) == null || menusToClick.get(lastItemIdx).isEmpty()) {
+                menusToClick.remove(lastItemIdx);
+            }
+            if (menusToClick.isEmpty()) return;
+
+            for (String mc : menusToClick) {
+                List<String> path = Arrays.asList(mc.split("->"));
+                boardSettings.clickableOptions.add(path);
+            }
+
+            result.add(boardSettings);
+        });
+
+        return result;
+    }
+
     public List<Preferences> dependentPreferencesFromMainSketchSource(String source) {
-        ProjectSettings projectSettings = this.loadAllFromDrizzleJson();
+        ProjectSettings projectSettings = this.loadMarkerSettingsFromDrizzleJson();
         if (projectSettings != null) {
             List<Preferences> preferences = projectSettings.getPreferences();
             return (preferences != null ? preferences : Collections.emptyList());
         }
 
         try {
-            Map<String, Map<String, String>> boardAndPreferences = extractMarkersKeyAndParams(
-                    extractAllCommentsFromSource(source), PREFERENCES, PREFERENCES_MARKER, PACKAGE_PROVIDER_GROUP,
-                    Arrays.asList(PLATFORM_GROUP, BOARD_GROUP, PREFDEF_GROUP)
-            );
+            return preferencesFromCommentLines(commentLinesOf(extractAllCommentsFromSource(source)));
+        } catch (IOException e) {
+            this.logProxy.cliErrorln(e);
+        }
 
-            List<Preferences> result = new ArrayList<>(boardAndPreferences.size());
-            boardAndPreferences.forEach((providerPackageName, boardStuff) -> {
-                String platformName = boardStuff.get(PLATFORM_GROUP);
-                String boardName = boardStuff.get(BOARD_GROUP);
+        return Collections.emptyList();
+    }
 
-                Preferences preferences = new Preferences(new Board(providerPackageName, platformName, boardName));
+    private List<Preferences> preferencesFromCommentLines(List<String> commentLines) {
+        Map<String, Map<String, String>> boardAndPreferences = extractMarkersKeyAndParams(
+                commentLines, PREFERENCES, PREFERENCES_MARKER, PACKAGE_PROVIDER_GROUP,
+                Arrays.asList(PLATFORM_GROUP, BOARD_GROUP, PREFDEF_GROUP)
+        );
 
-                String preferenceDefs = boardStuff.get(PREFDEF_GROUP);
-                if (preferenceDefs == null && preferenceDefs.isEmpty()) return;
+        List<Preferences> result = new ArrayList<>(boardAndPreferences.size());
+        boardAndPreferences.forEach((providerPackageName, boardStuff) -> {
+            String platformName = boardStuff.get(PLATFORM_GROUP);
+            String boardName = boardStuff.get(BOARD_GROUP);
 
-                List<String> prefDefPairs = Arrays.stream(preferenceDefs.split("\\|\\|")).collect(Collectors.toCollection(ArrayList::new));
-                int lastItemIdx = prefDefPairs.size() - 1;
-                if (prefDefPairs.get(lastItemIdx) == null || prefDefPairs.get(lastItemIdx).isEmpty()) {
-                    prefDefPairs.remove(lastItemIdx);
-                }
-                if (prefDefPairs.isEmpty()) return;
+            Preferences preferences = new Preferences(new Board(providerPackageName, platformName, boardName));
 
-                for (String mc : prefDefPairs) {
-                    List<String> keyAndVal = Arrays.asList(mc.split("=", 2));
-                    if (keyAndVal.size() < 2) {
-                        logProxy.cliError("Cannot extract preference key=value from %s%n", mc);
-                        continue;
-                    }
-                    preferences.preferences.put(keyAndVal.get(0), keyAndVal.get(1));
-                }
+            String preferenceDefs = boardStuff.get(PREFDEF_GROUP);
+            if (preferenceDefs == null && preferenceDefs.isEmpty()) return;
 
-                result.add(preferences);
-            });
+            List<String> prefDefPairs = Arrays.stream(preferenceDefs.split("\\|\\|")).collect(Collectors.toCollection(ArrayList::new));
+            int lastItemIdx = prefDefPairs.size() - 1;
+            if (prefDefPairs.get(lastItemIdx) == null || prefDefPairs.get(lastItemIdx).isEmpty()) {
+                prefDefPairs.remove(lastItemIdx);
+            }
+            if (prefDefPairs.isEmpty()) return;
 
-            return result;
-        } catch (IOException e) {
-            this.logProxy.cliErrorln(e);
-        }
+            for (String mc : prefDefPairs) {
+                List<String> keyAndVal = Arrays.asList(mc.split("=", 2));
+                if (keyAndVal.size() < 2) {
+                    logProxy.cliError("Cannot extract preference key=value from %s%n", mc);
+                    continue;
+                }
+                preferences.preferences.put(keyAndVal.get(0), keyAndVal.get(1));
+            }
 
-        return Collections.emptyList();
+            result.add(preferences);
+        });
+
+        return result;
     }
 
     public BoardManager dependentBoardManagerFromMainSketchSource(String source) {
-        ProjectSettings projectSettings = this.loadAllFromDrizzleJson();
+        ProjectSettings projectSettings = this.loadMarkerSettingsFromDrizzleJson();
         if (projectSettings != null) {
             return projectSettings.getBoardManager();
         }
 
         try {
-            Map<String, Map<String, String>> platformBoardUrl = extractMarkersKeyAndParams(extractAllCommentsFromSource(source),
-                    BOARD_MANAGER, BOARDMANAGER_MARKER, PLATFORM_GROUP, Arrays.asList(VER_GROUP, URL_GROUP));
+            return boardManagerFromCommentLines(commentLinesOf(extractAllCommentsFromSource(source)));
+        } catch (IOException e) {
+            e.printStackTrace(this.logProxy.stderr());
+        }
 
-            if (platformBoardUrl.isEmpty()) return null;
+        return null;
+    }
+
+    private BoardManager boardManagerFromCommentLines(List<String> commentLines) {
+        Map<String, Map<String, String>> platformBoardUrl = extractMarkersKeyAndParams(commentLines,
+                BOARD_MANAGER, BOARDMANAGER_MARKER, PLATFORM_GROUP, Arrays.asList(VER_GROUP, URL_GROUP));
+
+        if (platformBoardUrl.isEmpty()) return null;
 
-            Map.Entry<String, Map<String, String>> result = null;
-            for (Iterator<Map.Entry<String, Map<String, String>>> it = platformBoardUrl.entrySet().iterator(); it.hasNext(); ) {
+        Map.Entry<String, Map<String, String>> result = null;
+        for (Iterator<Map.Entry<String, Map<String, String>>> it = platformBoardUrl.entrySet().iterator(); it.hasNext(); ) {
 
-                if (result == null) {
-                    result = it.next();
+            if (result == null) {
+                result = it.next();
 
-                    String ver = result.getValue().get(VER_GROUP);
-                    ver = (ver != null ? ver.trim() : null);
+                String ver = result.getValue().get(VER_GROUP);
+                ver = (ver != null ? ver.trim() : null);
 
-                    String url = result.getValue().get(URL_GROUP);
-                    if (TextUtils.isNotNullOrBlank(url)) {
-                        final Map.Entry<String, Map<String, String>> res = result;
-                        final String version = ver;
-                        if (TextUtils.toURL(url,
-                                ex -> logProxy.cliError("Invalid URL in comment %s %s::%s::%s - %s%n", BOARDMANAGER_MARKER,
-                                        res.getKey(), version, url, ex.getMessage())) == null) {
+                String url = result.getValue().get(URL_GROUP);
+                if (TextUtils.isNotNullOrBlank(url)) {
+                    final Map.Entry<String, Map<String, String>> res = result;
+                    final String version = ver;
+                    if (TextUtils.toURL(url,
+                            ex -> logProxy.cliError("Invalid URL in comment %s %s::%s::%s - %s%n", BOARDMANAGER_MARKER,
+                                    res.getKey(), version, url, ex.getMessage())) == null) {
 
-                            result = null;
-                        }
+                        result = null;
                     }
-                } else {
-                    Map.Entry<String, Map<String, String>> skipped = it.next();
-                    this.logProxy.cliError("Ignoring additional comment %s %s::%s::%s%n", BOARDMANAGER_MARKER, skipped.getKey(),
-                            skipped.getValue().get(VER_GROUP), skipped.getValue().get(URL_GROUP));
                 }
+            } else {
+                Map.Entry<String, Map<String, String>> skipped = it.next();
+                this.logProxy.cliError("Ignoring additional comment %s %s::%s::%s%n", BOARDMANAGER_MARKER, skipped.getKey(),
+                        skipped.getValue().get(VER_GROUP), skipped.getValue().get(URL_GROUP));
             }
+        }
 
-            if (result != null) {
-                return new BoardManager(result.getKey(), result.getValue().get(VER_GROUP), result.getValue().get(URL_GROUP));
-            }
-        } catch (IOException e) {
-            e.printStackTrace(this.logProxy.stderr());
+        if (result != null) {
+            return new BoardManager(result.getKey(), result.getValue().get(VER_GROUP), result.getValue().get(URL_GROUP));
         }
 
         return null;
     }
 
     public Map<String, DependentLibrary> dependentLibsFromMainSketchSource(String source) {
-        ProjectSettings projectSettings = this.loadAllFromDrizzleJson();
+        ProjectSettings projectSettings = this.loadMarkerSettingsFromDrizzleJson();
         if (projectSettings != null) {
             Map<String, DependentLibrary> libraries = projectSettings.getLibraries();
             return (libraries != null ? libraries : Collections.emptyMap());
         }
 
         try {
-            return extractMarkersKeyValue(extractAllCommentsFromSource(source), DEPENDS_ON_LIB_VERSION,
-                    DEPENDSON_MARKER, LIB_GROUP, VER_GROUP)
-                    .entrySet().stream()
-                    .map(entry -> new DependentLibrary(entry.getKey(), entry.getValue()))
-                    .collect(Collectors.toMap(de -> de.name, Function.identity(), (de1, de2) -> de1, LinkedHashMap::new));
+            return libsFromCommentLines(commentLinesOf(extractAllCommentsFromSource(source)));
         } catch (IOException e) {
             e.printStackTrace(this.logProxy.stderr());
         }
         return Collections.emptyMap();
     }
 
+    private Map<String, DependentLibrary> libsFromCommentLines(List<String> commentLines) {
+        return extractMarkersKeyValue(commentLines, DEPENDS_ON_LIB_VERSION,
+                DEPENDSON_MARKER, LIB_GROUP, VER_GROUP)
+                .entrySet().stream()
+                .map(entry -> new DependentLibrary(entry.getKey(), entry.getValue()))
+                .collect(Collectors.toMap(de -> de.name, Function.identity(), (de1, de2) -> de1, LinkedHashMap::new));
+    }
+
     public List<ArduinoTool> arduinoToolsFromMainSketchSource(String source) {
-        ProjectSettings projectSettings = this.loadAllFromDrizzleJson();
+        ProjectSettings projectSettings = this.loadMarkerSettingsFromDrizzleJson();
         if (projectSettings != null) {
             return new ArrayList<>(projectSettings.getArduinoIdeTools().values());
         }
 
         try {
-            Map<String, Map<String, String>> toolVerUrl = extractMarkersKeyAndParams(extractAllCommentsFromSource(source),
-                    ARDUINO_TOOL_VERSION, ARDUINOTOOL_MARKER, TOOL_GROUP, Arrays.asList(VER_GROUP, URL_GROUP));
-
-            return toolVerUrl.entrySet().stream()
-                    .map(entry -> new ArduinoTool(entry.getKey(), entry.getValue().get(VER_GROUP),
-                            TextUtils.trim(entry.getValue().get(URL_GROUP), " "))
-                    )
-                    .filter(at -> null != at
-                            && TextUtils.isNotNullOrBlank(at.url)
-                            && null != TextUtils.toURL(at.url, ex -> logProxy.cliError("Invalid URL in comment %s %s::%s::%s - %s%n",
-                                ARDUINOTOOL_MARKER, at.name, at.version, at.url, ex.getMessage()))
-                    )
-                    .collect(Collectors.toList());
+            return arduinoToolsFromCommentLines(commentLinesOf(extractAllCommentsFromSource(source)));
         } catch (IOException e) {
             e.printStackTrace(this.logProxy.stderr());
         }
@@ -518,18 +795,219 @@ public class SourceExtractor {
         return Collections.emptyList();
     }
 
-    private Map<String, Map<String, String>> extractMarkersKeyAndParams(List<String> comments, Pattern marker, String markerName,
+    private List<ArduinoTool> arduinoToolsFromCommentLines(List<String> commentLines) {
+        Map<String, Map<String, String>> toolVerUrl = extractMarkersKeyAndParams(commentLines,
+                ARDUINO_TOOL_VERSION, ARDUINOTOOL_MARKER, TOOL_GROUP, Arrays.asList(VER_GROUP, URL_GROUP));
+
+        return toolVerUrl.entrySet().stream()
+                .map(entry -> new ArduinoTool(entry.getKey(), entry.getValue().get(VER_GROUP),
+                        TextUtils.trim(entry.getValue().get(URL_GROUP), " "))
+                )
+                .filter(at -> null != at
+                        && TextUtils.isNotNullOrBlank(at.url)
+                        && null != TextUtils.toURL(at.url, ex -> logProxy.cliError("Invalid URL in comment %s %s::%s::%s - %s%n",
+                            ARDUINOTOOL_MARKER, at.name, at.version, at.url, ex.getMessage()))
+                )
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> commentLinesOf(List<String> comments) {
+        if (comments == null || comments.isEmpty()) return Collections.emptyList();
+
+        List<String> result = new ArrayList<>();
+        for (String comment : comments) {
+            result.addAll(Arrays.asList(NEW_LINE_SPLITTER.split(comment)));
+        }
+        return result;
+    }
+
+    private static int markerKeywordEnd(String commentLine, int at) {
+        int end = at + 1;
+        while (end < commentLine.length() && Character.isLetter(commentLine.charAt(end))) {
+            ++end;
+        }
+        return end;
+    }
+
+    static String markerKeywordOf(String commentLine) {
+        int at = commentLine.indexOf('@');
+        if (at < 0) return null;
+
+        return commentLine.substring(at, markerKeywordEnd(commentLine, at));
+    }
+
+    private static boolean isMarkerKeyword(String commentLine, String markerName) {
+        int at = commentLine.indexOf('@');
+        return at >= 0 && commentLine.startsWith(markerName, at) && markerKeywordEnd(commentLine, at) == at + markerName.length();
+    }
+
+    private static Map<String, List<String>> routeCommentLinesByMarker(List<String> commentLines) {
+        Map<String, List<String>> result = new HashMap<>();
+        for (String marker : Arrays.asList(BOARDMANAGER_MARKER, BOARDNAME_MARKER, BOARDSETTINGS_MARKER, DEPENDSON_MARKER,
+                PREFERENCES_MARKER, ARDUINOTOOL_MARKER, MARKERSOURCES_MARKER)) {
+            result.put(marker, new ArrayList<>());
+        }
+
+        for (String commentLine : commentLines) {
+            String keyword = markerKeywordOf(commentLine);
+            if (keyword != null) {
+                List<String> lines = result.get(keyword);
+                if (lines != null) {
+                    lines.add(commentLine);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static List<String> markerSourcesLinesOf(String source) {
+        if (source == null) return Collections.emptyList();
+
+        List<String> result = new ArrayList<>();
+        for (int i = source.indexOf(MARKERSOURCES_MARKER); i >= 0; i = source.indexOf(MARKERSOURCES_MARKER, i + 1)) {
+            int lineStart = Math.max(source.lastIndexOf('\n', i), source.lastIndexOf('\r', i)) + 1;
+            int lineEnd = i;
+            while (lineEnd < source.length() && source.charAt(lineEnd) != '\n' && source.charAt(lineEnd) != '\r') {
+                ++lineEnd;
+            }
+            result.add(source.substring(lineStart, lineEnd));
+        }
+        return result;
+    }
+
+    private List<File> markerSourceFiles(List<String> markerSourcesLines, boolean reportProblems) {
+        File primaryFile = this.getPrimarySketchFile();
+        if (primaryFile == null || markerSourcesLines.isEmpty()) return Collections.emptyList();
+
+        File sketchFolder = primaryFile.getAbsoluteFile().getParentFile();
+        Map<String, File> result = new LinkedHashMap<>();
+
+        for (String commentLine : markerSourcesLines) {
+            Matcher matcher = MARKER_SOURCES.matcher(commentLine);
+            if (!matcher.matches()) {
+                if (reportProblems && INVALID_MARKER.matcher(commentLine).matches()) {
+                    this.logProxy.uiWarn("Ignoring invalid marker comment:\n" + commentLine);
+                }
+                continue;
+            }
+
+            for (String markerSource : matcher.group(SOURCES_GROUP).split("\\|\\|")) {
+                markerSource = markerSource.trim();
+                if (markerSource.isEmpty()) continue;
+
+                if (TABS_MARKER_SOURCE.equals(markerSource)) {
+                    for (File tab : sketchTabFiles(sketchFolder)) {
+                        result.putIfAbsent(tab.getPath(), tab);
+                    }
+                    continue;
+                }
+
+                File file = new File(markerSource);
+                if (!file.isAbsolute()) {
+                    file = new File(sketchFolder, markerSource);
+                }
+                file = file.getAbsoluteFile().toPath().normalize().toFile();
+
+                if (file.isFile()) {
+                    result.putIfAbsent(file.getPath(), file);
+                } else if (reportProblems) {
+                    this.logProxy.cliError("Ignoring missing %s file %s%n", MARKERSOURCES_MARKER, file);
+                }
+            }
+        }
+
+        result.remove(primaryFile.getAbsoluteFile().toPath().normalize().toString());
+        return new ArrayList<>(result.values());
+    }
+
+    private List<File> sketchTabFiles(File sketchFolder) {
+        List<File> contextFiles = (sketchContext != null ? sketchContext.getSketchFiles() : null);
+        if (contextFiles != null && !contextFiles.isEmpty()) {
+            return contextFiles.stream()
+                    .filter(Objects::nonNull)
+                    .map(f -> f.getAbsoluteFile().toPath().normalize().toFile())
+                    .collect(Collectors.toList());
+        }
+
+        File[] files = sketchFolder.listFiles(f -> f.isFile()
+                && SKETCH_TAB_EXTENSIONS.contains(f.getName().substring(f.getName().lastIndexOf('.') + 1)));
+        if (files == null) return Collections.emptyList();
+
+        return Arrays.stream(files)
+                .sorted(Comparator.comparing(File::getName))
+                .map(f -> f.getAbsoluteFile().toPath().normalize().toFile())
+                .collect(Collectors.toList());
+    }
+
+    // shared by all parses, so the editor's frequent re-parsing does not create new threads every time
+    private static final class MarkerScanExecutor {
+        static final ExecutorService INSTANCE = newMarkerScanExecutor();
+
+        private static ExecutorService newMarkerScanExecutor() {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "drizzle-marker-scan");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    private List<Map<String, List<String>>> routeMarkerSourceFiles(List<File> files, HeaderScan headerScan) {
+        List<Future<Map<String, List<String>>>> futures = new ArrayList<>(files.size());
+        for (File file : files) {
+            futures.add(MarkerScanExecutor.INSTANCE.submit(() -> routeCommentLinesByMarker(commentLinesOf(extractHeaderCommentsFromSource(
+                    new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8), headerScan)))));
+        }
+
+        try {
+            List<Map<String, List<String>>> result = new ArrayList<>(files.size());
+            for (int i = 0; i < futures.size(); ++i) {
+                try {
+                    result.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    this.logProxy.cliError("Failed scanning %s for markers: %s%n", files.get(i), e.getCause());
+                }
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(future -> future.cancel(true));
+            this.logProxy.cliErrorln(e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static Map<String, List<String>> mergeMarkerLines(Map<String, List<String>> primary, List<Map<String, List<String>>> others) {
+        Map<String, List<String>> result = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : primary.entrySet()) {
+            List<String> lines = new ArrayList<>(entry.getValue());
+            if (!MARKERSOURCES_MARKER.equals(entry.getKey())) {
+                for (Map<String, List<String>> other : others) {
+                    lines.addAll(other.getOrDefault(entry.getKey(), Collections.emptyList()));
+                }
+            }
+            result.put(entry.getKey(), lines);
+        }
+        return result;
+    }
+
+    private Map<String, Map<String, String>> extractMarkersKeyAndParams(List<String> commentLines, Pattern marker, String markerName,
             String keyGroup, List<String> paramGroups) {
-        return this.extractMarkersKeyAndParams(comments, marker, markerName, keyGroup, paramGroups, data -> null);
+        return this.extractMarkersKeyAndParams(commentLines, marker, markerName, keyGroup, paramGroups, data -> null);
     }
 
-    private Map<String, Map<String, String>> extractMarkersKeyAndParams(List<String> comments, Pattern marker, String markerName,
+    private Map<String, Map<String, String>> extractMarkersKeyAndParams(List<String> commentLines, Pattern marker, String markerName,
             String keyGroup, List<String> paramGroups, Function<Map<String, String>, String> onNullKey) {
 
-        if (comments == null || comments.isEmpty()) return Collections.emptyMap();
+        if (commentLines == null || commentLines.isEmpty()) return Collections.emptyMap();
 
-        return comments.stream()
-                .flatMap(data -> Stream.of(NEW_LINE_SPLITTER.split(data)))
+        return commentLines.stream()
+                .filter(comment -> isMarkerKeyword(comment, markerName))
                 .collect(
                         LinkedHashMap::new,
                         (result, comment) -> {
@@ -548,7 +1026,7 @@ public class SourceExtractor {
                                 } else {
                                     this.logProxy.uiWarn("Ignoring duplicated marker comment:\n" + comment);
                                 }
-                            } else if (comment.matches("^[^@]*" + markerName + "(?:\\s|$)")) {
+                            } else if (INVALID_MARKER.matcher(comment).matches()) {
                                 this.logProxy.uiWarn("Ignoring invalid marker comment:\n" + comment);
                             }
                         },
@@ -557,9 +1035,9 @@ public class SourceExtractor {
     }
 
     private Map<String, String> extractMarkersKeyValue(
-            List<String> comments, Pattern marker, String markerName, String keyGroup, String valueGroup) {
+            List<String> commentLines, Pattern marker, String markerName, String keyGroup, String valueGroup) {
 
-        return extractMarkersKeyAndParams(comments, marker, markerName, keyGroup, Collections.singletonList(valueGroup)).entrySet().stream()
+        return extractMarkersKeyAndParams(commentLines, marker, markerName, keyGroup, Collections.singletonList(valueGroup)).entrySet().stream()
                 .map(entry -> {
                     String v = entry.getValue().get(valueGroup);
                     if (v != null) v = v.trim();
@@ -568,32 +1046,75 @@ public class SourceExtractor {
                 .collect(HashMap::new, (result, entry) -> result.put(entry.getKey(), entry.getValue()), HashMap::putAll);
     }
 
-    private CharStream buildFromStream(InputStream stream) throws IOException {
-        // return CharStreams.fromStream(stream); // in newer antlr versions
-        return new ANTLRInputStream(stream);
+    private List<String> extractHeaderCommentsFromSource(String source, HeaderScan headerScan) throws IOException {
+        if (source == null || source.isEmpty()) return Collections.emptyList();
+
+        HeaderScanLimiter limiter = new HeaderScanLimiter(headerScan);
+        List<String> result = new ArrayList<>();
+
+        int stoppedAt = scanComments(source, comment -> {
+            result.add(comment);
+            limiter.onComment(comment);
+        }, limiter);
+
+        if (stoppedAt < source.length() && MARKER_LIKE.matcher(source).region(stoppedAt, source.length()).find()) {
+            // a marker may live beyond the header region, so fall back to a full scan
+            return extractAllCommentsFromSource(source);
+        }
+
+        return result;
     }
 
-    private List<String> extractAllCommentsFromSource(String source) throws IOException {
+    public List<String> extractAllCommentsFromSource(String source) throws IOException {
         if (source == null || source.isEmpty()) return Collections.emptyList();
 
         List<String> result = new ArrayList<>();
+        scanComments(source, result::add, null);
+        return result;
+    }
 
-        try (ByteArrayInputStream sourceCodeStream = new ByteArrayInputStream(source.getBytes())) {
+    private int scanComments(String source, Consumer<String> onComment, StreamingCommentScanner.ScanLimiter limiter)
+            throws IOException {
 
-            CommonTokenStream commonTokenStream = new CommonTokenStream(new CPP14Lexer(buildFromStream(sourceCodeStream)));
-            commonTokenStream.fill();
+        if (this.commentScannerType == CommentScannerType.STREAMING) {
+            return StreamingCommentScanner.scan(source, (src, start, end) -> onComment.accept(src.subSequence(start, end).toString()),
+                    limiter);
+        }
 
-            for (int index = 0; index < commonTokenStream.size(); ++index) {
+        return lexComments(source, onComment, limiter);
+    }
 
-                Token token = commonTokenStream.get(index);
+    private static int lexComments(String source, Consumer<String> onComment, StreamingCommentScanner.ScanLimiter limiter) {
+        // the lexer is reused per thread - its ATN and DFA caches are shared, but the instance itself isn't thread-safe
+        CPP14Lexer lexer = REUSABLE_LEXER.get();
+        lexer.setInputStream(new ANTLRInputStream(source));
 
-                if (token != null && token.getType() != CPP14Parser.Whitespace && token.getChannel() == CPP14Lexer.COMMENTS) {
-                    String comment = token.getText();
-                    result.add(comment);
+        try {
+            int codeTokens = 0;
+
+            for (Token token = lexer.nextToken(); token.getType() != Token.EOF; token = lexer.nextToken()) {
+
+                if (token.getChannel() == CPP14Lexer.COMMENTS) {
+                    if (token.getType() != CPP14Parser.Whitespace) {
+                        onComment.accept(token.getText());
+                    }
+                } else if (limiter != null && limiter.shouldStop(++codeTokens, token.getStopIndex() + 1)) {
+                    return token.getStopIndex() + 1;
                 }
             }
+        } finally {
+            // don't retain the source
+            lexer.setInputStream(new ANTLRInputStream(""));
         }
 
-        return result;
+        return source.length();
+    }
+
+    public static long warmUp() {
+        long start = System.nanoTime();
+
+        new SourceExtractor(null, LogProxy.silent()).parseProjectSettings(WARM_UP_SOURCE);
+
+        return System.nanoTime() - start;
     }
 }
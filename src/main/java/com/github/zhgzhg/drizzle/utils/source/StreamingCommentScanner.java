@@ -0,0 +1,253 @@
+package com.github.zhgzhg.drizzle.utils.source;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class StreamingCommentScanner {
+
+    @FunctionalInterface
+    public interface CommentConsumer {
+        void accept(CharSequence source, int start, int end);
+    }
+
+    @FunctionalInterface
+    public interface ScanLimiter {
+        boolean shouldStop(int codeTokens, int position);
+    }
+
+    private static final int MAX_RAW_STRING_DELIMITER_LENGTH = 16;
+
+    private StreamingCommentScanner() {
+        throw new UnsupportedOperationException("Not intended for instantiation");
+    }
+
+    public static List<String> extractComments(CharSequence source) {
+        List<String> result = new ArrayList<>();
+        scan(source, (src, start, end) -> result.add(src.subSequence(start, end).toString()));
+        return result;
+    }
+
+    public static void scan(CharSequence source, CommentConsumer consumer) {
+        scan(source, consumer, null);
+    }
+
+    public static int scan(CharSequence source, CommentConsumer consumer, ScanLimiter limiter) {
+        if (source == null) return 0;
+
+        final int length = source.length();
+        int codeTokens = 0;
+        int i = 0;
+
+        while (i < length) {
+            char c = source.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                ++i;
+                continue;
+            }
+
+            if (c == '/' && i + 1 < length) {
+                char next = source.charAt(i + 1);
+                if (next == '/') {
+                    int end = skipToLineEnd(source, i + 2);
+                    consumer.accept(source, i, end);
+                    i = end;
+                    continue;
+                }
+                if (next == '*') {
+                    int end = indexOf(source, "*/", i + 2);
+                    if (end >= 0) {
+                        consumer.accept(source, i, end + 2);
+                        i = end + 2;
+                        continue;
+                    }
+                    // unterminated block comment - it's lexed as an ordinary division operator
+                }
+                ++i;
+            } else if (c == '"') {
+                i = skipQuoted(source, i, '"');
+            } else if (c == '\'') {
+                i = skipQuoted(source, i, '\'');
+            } else if (c == '#') {
+                i = skipDirective(source, i);
+            } else if (isIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < length && isIdentifierPart(source.charAt(end))) {
+                    ++end;
+                }
+                i = skipPossiblyPrefixedLiteral(source, i, end);
+            } else if (c >= '0' && c <= '9') {
+                i = skipNumber(source, i);
+            } else {
+                ++i;
+            }
+
+            ++codeTokens;
+            if (limiter != null && limiter.shouldStop(codeTokens, i)) {
+                return i;
+            }
+        }
+
+        return length;
+    }
+
+    private static int skipPossiblyPrefixedLiteral(CharSequence source, int identStart, int identEnd) {
+        if (identEnd >= source.length()) return identEnd;
+
+        char quote = source.charAt(identEnd);
+        if (quote != '"' && quote != '\'') return identEnd;
+
+        int prefixLength = identEnd - identStart;
+        if (prefixLength > 3) return identEnd;
+
+        String prefix = source.subSequence(identStart, identEnd).toString();
+
+        if (quote == '\'') {
+            return ("u".equals(prefix) || "U".equals(prefix) || "L".equals(prefix) ? skipQuoted(source, identEnd, '\'') : identEnd);
+        }
+
+        switch (prefix) {
+            case "u8":
+            case "u":
+            case "U":
+            case "L":
+                return skipQuoted(source, identEnd, '"');
+            case "R":
+            case "u8R":
+            case "uR":
+            case "UR":
+            case "LR":
+                int end = skipRawString(source, identEnd);
+                return (end > 0 ? end : identEnd);
+            default:
+                return identEnd;
+        }
+    }
+
+    private static int skipQuoted(CharSequence source, int quoteIndex, char quote) {
+        final int length = source.length();
+        int i = quoteIndex + 1;
+
+        while (i < length) {
+            char c = source.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                if (i <= length && source.charAt(i - 1) == '\r' && i < length && source.charAt(i) == '\n') {
+                    ++i;
+                }
+            } else if (c == quote) {
+                return i + 1;
+            } else if (c == '\r' || c == '\n') {
+                // unterminated literal - dropped up to and including the new line
+                return i + 1;
+            } else {
+                ++i;
+            }
+        }
+
+        return length;
+    }
+
+    private static int skipRawString(CharSequence source, int quoteIndex) {
+        final int length = source.length();
+        int openParen = quoteIndex + 1;
+
+        while (openParen < length && source.charAt(openParen) != '(') {
+            char c = source.charAt(openParen);
+            if (c == ' ' || c == ')' || c == '\\' || c == '\r' || c == '\n' || c == '\t'
+                    || openParen - quoteIndex - 1 >= MAX_RAW_STRING_DELIMITER_LENGTH) {
+                return -1;
+            }
+            ++openParen;
+        }
+        if (openParen >= length) return -1;
+
+        String terminator = ")" + source.subSequence(quoteIndex + 1, openParen) + "\"";
+        int end = indexOf(source, terminator, openParen + 1);
+
+        return (end >= 0 ? end + terminator.length() : -1);
+    }
+
+    private static int skipDirective(CharSequence source, int hashIndex) {
+        final int length = source.length();
+        int i = hashIndex;
+
+        while (true) {
+            int lineEnd = i;
+            while (lineEnd < length && source.charAt(lineEnd) != '\n') {
+                ++lineEnd;
+            }
+            if (lineEnd >= length) return length;
+
+            int lastChar = lineEnd - 1;
+            if (lastChar >= i && source.charAt(lastChar) == '\r') {
+                --lastChar;
+            }
+            boolean continued = lastChar >= i && source.charAt(lastChar) == '\\';
+            boolean nextLineIsEmpty = lineEnd + 1 >= length || source.charAt(lineEnd + 1) == '\n';
+
+            if (!continued || nextLineIsEmpty) {
+                return lineEnd;
+            }
+            i = lineEnd + 1;
+        }
+    }
+
+    private static int skipNumber(CharSequence source, int start) {
+        final int length = source.length();
+        int i = start + 1;
+
+        while (i < length) {
+            char c = source.charAt(i);
+            if (isIdentifierPart(c) || c == '.') {
+                ++i;
+            } else if (c == '\'' && i + 1 < length && Character.isLetterOrDigit(source.charAt(i + 1))) {
+                i += 2;
+            } else {
+                break;
+            }
+        }
+
+        return i;
+    }
+
+    private static int skipToLineEnd(CharSequence source, int from) {
+        final int length = source.length();
+        int i = from;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (c == '\r' || c == '\n') break;
+            ++i;
+        }
+        return i;
+    }
+
+    private static int indexOf(CharSequence source, String what, int from) {
+        if (source instanceof String) {
+            return ((String) source).indexOf(what, from);
+        }
+
+        final int last = source.length() - what.length();
+        final char first = what.charAt(0);
+
+        for (int i = from; i <= last; ++i) {
+            if (source.charAt(i) != first) continue;
+
+            int j = 1;
+            while (j < what.length() && source.charAt(i + j) == what.charAt(j)) {
+                ++j;
+            }
+            if (j == what.length()) return i;
+        }
+
+        return -1;
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$' || c > 0x7f;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9');
+    }
+}
@@ -1,29 +1,69 @@
 package com.github.zhgzhg;
 
-import com.github.zhgzhg.drizzle.utils.json.BoardSettingsSerializerCustomizer;
-import com.github.zhgzhg.drizzle.utils.json.MapOfArduinoToolsSerializerCustomizer;
-import com.github.zhgzhg.drizzle.utils.json.MapOfDependentLibrariesSerializerCustomizer;
-import com.github.zhgzhg.drizzle.utils.json.PreferencesSerializerCustomizer;
+import cc.arduino.contributions.libraries.ContributedLibrary;
+import cc.arduino.contributions.libraries.ContributedLibraryDependency;
+import com.github.zhgzhg.drizzle.BatchSketchParser;
+import com.github.zhgzhg.drizzle.DrizzleDaemon;
+import com.github.zhgzhg.drizzle.utils.arduino.ExternLibFileInstaller;
+import com.github.zhgzhg.drizzle.utils.arduino.IndexFreshness;
+import com.github.zhgzhg.drizzle.utils.arduino.LibraryCatalog;
+import com.github.zhgzhg.drizzle.utils.arduino.LibraryInstallPlan;
+import com.github.zhgzhg.drizzle.utils.arduino.TransitiveDependencyResolver;
+import com.github.zhgzhg.drizzle.utils.file.ArtifactCache;
+import com.github.zhgzhg.drizzle.utils.file.FileUtils;
+import com.github.zhgzhg.drizzle.utils.json.DrizzleLock;
 import com.github.zhgzhg.drizzle.utils.json.ProjectSettings;
 import com.github.zhgzhg.drizzle.utils.log.LogProxy;
+import com.github.zhgzhg.drizzle.utils.semver.SemverUtils;
+import com.github.zhgzhg.drizzle.utils.source.MarkerBlockSync;
+import com.github.zhgzhg.drizzle.utils.source.MarkerEditTracker;
+import com.github.zhgzhg.drizzle.utils.source.ProjectSettingsCache;
 import com.github.zhgzhg.drizzle.utils.source.SourceExtractor;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.github.zhgzhg.drizzle.utils.source.StreamingCommentScanner;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
 
+import javax.swing.JTextArea;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
-import java.lang.reflect.Type;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 class DrizzleParsingTest {
@@ -102,34 +142,829 @@ class DrizzleParsingTest {
         ProjectSettings projectSettings = createProjectSettings(sourceExtractor, source);
         ProjectSettings projectSettings2 = createProjectSettings(sourceExtractor, source2);
 
-        Type dependentLibraryContainerType = new TypeToken<Map<String, SourceExtractor.DependentLibrary>>() { }.getType();
-        Type ardToolsContainerType = new TypeToken<Map<String, SourceExtractor.ArduinoTool>>() { }.getType();
+        assertEquals(loadWholeTextResource("sample_sketch_parsed.json"), ProjectSettings.toJSON(projectSettings));
+        assertEquals(loadWholeTextResource("sample_sketch_parsed2.json"), ProjectSettings.toJSON(projectSettings2));
+    }
+
+    @Test
+    void projectSettingsTypeAdapterTest() throws IOException {
+        String[][] sketchAndJson = { { "sample_sketch.ino", "sample_sketch_parsed.json" },
+                { "sample_sketch2.ino", "sample_sketch_parsed2.json" } };
 
-        Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().serializeNulls()
-                .registerTypeAdapter(SourceExtractor.BoardSettings.class, new BoardSettingsSerializerCustomizer())
-                .registerTypeAdapter(dependentLibraryContainerType, new MapOfDependentLibrariesSerializerCustomizer())
-                .registerTypeAdapter(SourceExtractor.Preferences.class, new PreferencesSerializerCustomizer())
-                .registerTypeAdapter(ardToolsContainerType, new MapOfArduinoToolsSerializerCustomizer())
-                .create();
+        for (String[] pair : sketchAndJson) {
+            String expectedJson = loadWholeTextResource(pair[1]);
+            ProjectSettings projectSettings = createProjectSettings(new SourceExtractor(null, strictLogProxy), loadWholeTextResource(pair[0]));
 
-        assertEquals(loadWholeTextResource("sample_sketch_parsed.json"), gson.toJson(projectSettings));
-        assertEquals(loadWholeTextResource("sample_sketch_parsed2.json"), gson.toJson(projectSettings2));
+            assertEquals(expectedJson, ProjectSettings.toJSON(projectSettings));
+            assertEquals(expectedJson, ProjectSettings.toJSON(ProjectSettings.fromJSON(expectedJson, strictLogProxy)));
+        }
+
+        ProjectSettings wildcards = new SourceExtractor(null, strictLogProxy).projectSettingsFromMainSketchSource(
+                "// @BoardSettings *::*::Flash Mode->QIO\n");
+        String json = ProjectSettings.toJSON(wildcards);
+        assertEquals(json, ProjectSettings.toJSON(ProjectSettings.fromJSON(json, strictLogProxy)));
     }
 
     @Test
-    void jsonParserTest() throws IOException {
+    void singlePassMarkerParserTest() throws IOException {
+        for (String sketch : new String[] { "sample_sketch.ino", "sample_sketch2.ino" }) {
+            String source = loadWholeTextResource(sketch);
+            SourceExtractor sourceExtractor = new SourceExtractor(null, strictLogProxy);
+
+            assertEquals(ProjectSettings.toJSON(createProjectSettings(sourceExtractor, source)),
+                    ProjectSettings.toJSON(sourceExtractor.projectSettingsFromMainSketchSource(source)));
+        }
+    }
+
+    @Test
+    void streamingCommentScannerConformanceTest() throws IOException {
+        String trickySource = "#include <Arduino.h> // @DependsOn Hidden::1.0.0\n"
+                + "#define LONG_MACRO(x) \\\n    (x) // @DependsOn HiddenToo::1.0.0\n"
+                + "const char *s1 = \"// @DependsOn NotAComment::1.0.0\";\n"
+                + "const char *s2 = R\"(/* @DependsOn NotAComment2::1.0.0 */)\";\n"
+                + "const char *s3 = u8\"\\\" /* @DependsOn NotAComment3::1.0.0 */\";\n"
+                + "char c = '\"'; long n = 1'000'000; // @DependsOn Visible::^1.2.3\n"
+                + "/* @Board esp8266::NodeMCU 1.0 (ESP-12E Module) */\n"
+                + "void loop() { }\n";
+
+        for (String source : new String[] {
+                loadWholeTextResource("sample_sketch.ino"), loadWholeTextResource("sample_sketch2.ino"), trickySource }) {
+
+            SourceExtractor antlrExtractor = new SourceExtractor(null, strictLogProxy);
+            SourceExtractor streamingExtractor = new SourceExtractor(null, strictLogProxy);
+            streamingExtractor.setCommentScannerType(SourceExtractor.CommentScannerType.STREAMING);
+
+            assertEquals(ProjectSettings.toJSON(antlrExtractor.projectSettingsFromMainSketchSource(source)),
+                    ProjectSettings.toJSON(streamingExtractor.projectSettingsFromMainSketchSource(source)));
+        }
+
+        ProjectSettings trickySettings = new SourceExtractor(null, strictLogProxy).projectSettingsFromMainSketchSource(trickySource);
+        assertEquals("[Visible]", trickySettings.getLibraries().keySet().toString());
+        assertEquals("esp8266", trickySettings.getBoard().platform);
+    }
+
+    @Test
+    void headerScanTest() throws IOException {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 1000; ++i) {
+            body.append("const uint8_t table").append(i).append("[] PROGMEM = { 0x01, 0x02, 0x03 };\n");
+        }
+
+        String header = "/* @HeaderScan 8\n @DependsOn Header::1.0.0\n */\n";
+        String tailMarker = "// @DependsOn Tail::2.0.0\n";
+
+        assertEquals("const".length(), StreamingCommentScanner.scan(header + body, (src, start, end) -> { },
+                (codeTokens, position) -> codeTokens >= 1) - header.length());
+
+        for (SourceExtractor.CommentScannerType scannerType : SourceExtractor.CommentScannerType.values()) {
+            SourceExtractor sourceExtractor = new SourceExtractor(null, strictLogProxy);
+            sourceExtractor.setCommentScannerType(scannerType);
+
+            ProjectSettings ps = sourceExtractor.projectSettingsFromMainSketchSource(header + body);
+            assertEquals("[Header]", ps.getLibraries().keySet().toString());
+
+            ps = sourceExtractor.projectSettingsFromMainSketchSource(header + body + tailMarker);
+            assertEquals("[Header, Tail]", ps.getLibraries().keySet().toString());
+
+            sourceExtractor.setHeaderScan(new SourceExtractor.HeaderScan(0, 64));
+            ps = sourceExtractor.projectSettingsFromMainSketchSource("// @DependsOn Header::1.0.0\n" + body + tailMarker);
+            assertEquals("[Header, Tail]", ps.getLibraries().keySet().toString());
+        }
+    }
+
+    @Test
+    void markerSourcesTest() throws IOException {
+        Path sketchDir = Files.createTempDirectory("drizzle-sketch");
+        try {
+            String primarySource = "// @MarkerSources tabs||src/config.h||missing.h\n// @DependsOn Primary::1.0.0\nvoid setup() { }\n";
+            Path primary = Files.write(sketchDir.resolve("sketch.ino"), primarySource.getBytes(StandardCharsets.UTF_8));
+            Files.write(sketchDir.resolve("b_tab.ino"), "// @DependsOn TabB::1.0.0\n// @DependsOn Primary::2.0.0\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(sketchDir.resolve("a_tab.h"), "// @DependsOn TabA::1.0.0\n// @Board esp8266::esp8266::d1\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            Files.createDirectories(sketchDir.resolve("src"));
+            Files.write(sketchDir.resolve("src").resolve("config.h"), "// @DependsOn Config::1.0.0\n".getBytes(StandardCharsets.UTF_8));
+
+            List<String> cliErrors = new ArrayList<>();
+            SourceExtractor sourceExtractor = new SourceExtractor(null, new LogProxy<Object>() {
+                @Override
+                public void cliError(final String format, final Object... params) {
+                    cliErrors.add(String.format(format, params));
+                }
+            });
+            sourceExtractor.setPrimarySketchFile(primary.toFile());
+
+            ProjectSettings ps = sourceExtractor.projectSettingsFromMainSketchSource(primarySource);
+            assertEquals("[Config, Primary, TabA, TabB]", new TreeSet<>(ps.getLibraries().keySet()).toString());
+            assertEquals("1.0.0", ps.getLibraries().get("Primary").version);
+            assertEquals("esp8266", ps.getBoard().platform);
+            assertEquals(1, cliErrors.size());
+
+            assertEquals("[Primary]", new SourceExtractor(null, strictLogProxy).projectSettingsFromMainSketchSource(primarySource)
+                    .getLibraries().keySet().toString());
+        } finally {
+            try (Stream<Path> paths = Files.walk(sketchDir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @Test
+    void markerEditTrackerTest() throws BadLocationException {
+        JTextArea textArea = new JTextArea("// @DependsOn First::1.0.0\nvoid setup() {\n  int x = 1;\n}\n");
+        Document document = textArea.getDocument();
+        MarkerEditTracker tracker = new MarkerEditTracker(() -> textArea, new SourceExtractor(null, strictLogProxy));
+
+        ProjectSettings ps = tracker.projectSettings();
+        assertEquals("[First]", ps.getLibraries().keySet().toString());
 
-        Type dependentLibraryContainerType = new TypeToken<Map<String, SourceExtractor.DependentLibrary>>() { }.getType();
-        Type ardToolsContainerType = new TypeToken<Map<String, SourceExtractor.ArduinoTool>>() { }.getType();
-        Gson gson = new GsonBuilder()
-                .registerTypeAdapter(SourceExtractor.BoardSettings.class, new BoardSettingsSerializerCustomizer())
-                .registerTypeAdapter(dependentLibraryContainerType, new MapOfDependentLibrariesSerializerCustomizer())
-                .registerTypeAdapter(SourceExtractor.Preferences.class, new PreferencesSerializerCustomizer())
-                .registerTypeAdapter(ardToolsContainerType, new MapOfArduinoToolsSerializerCustomizer())
-                .create();
+        int codeOffset = textArea.getText().indexOf("x = 1");
+        document.insertString(codeOffset, "yz", null);
+        assertSame(ps, tracker.projectSettings());
+        document.remove(codeOffset, 2);
+        assertSame(ps, tracker.projectSettings());
+
+        document.insertString(textArea.getText().indexOf("First") + 5, "Lib", null);
+        ProjectSettings psEdited = tracker.projectSettings();
+        assertNotSame(ps, psEdited);
+        assertEquals("[FirstLib]", psEdited.getLibraries().keySet().toString());
+
+        document.remove(0, textArea.getText().indexOf('\n') + 1);
+        assertTrue(tracker.projectSettings().getLibraries().isEmpty());
+    }
+
+    @Test
+    void batchSketchParserTest() throws IOException {
+        Path root = Files.createTempDirectory("drizzle-batch");
+        try {
+            for (String name : new String[] { "b_sketch", "a_sketch", "nested/c_sketch" }) {
+                Path dir = Files.createDirectories(root.resolve(name));
+                Files.write(dir.resolve(dir.getFileName() + ".ino"),
+                        ("// @DependsOn Lib_" + dir.getFileName() + "::1.0.0\n").getBytes(StandardCharsets.UTF_8));
+            }
+            Files.write(root.resolve("nested").resolve("not_a_sketch.ino"), "// @DependsOn X::1.0.0\n".getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.createSymbolicLink(root.resolve("nested").resolve("loop"), root);
+            } catch (UnsupportedOperationException | IOException e) {
+                // the links are not supported everywhere
+            }
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            int status;
+            try (PrintStream out = new PrintStream(baos, true, "UTF-8")) {
+                status = new BatchSketchParser(new ForkJoinPool(2)).parse(
+                        Arrays.asList(root.toString(), root.resolve("missing.ino").toString(), root.resolve("b_sketch").toString()), out);
+            }
+            assertEquals(BatchSketchParser.STATUS_PARSE_ERROR, status);
+
+            // in the order of the arguments
+            List<JsonObject> lines = Arrays.stream(new String(baos.toByteArray(), StandardCharsets.UTF_8).split("\\R"))
+                    .map(line -> JsonParser.parseString(line).getAsJsonObject())
+                    .collect(Collectors.toList());
+            assertEquals(5, lines.size());
+            assertEquals(BatchSketchParser.STATUS_NOT_FOUND, lines.get(3).get("status").getAsInt());
+
+            List<String> libs = new ArrayList<>();
+            for (JsonObject line : lines) {
+                if (line.get("status").getAsInt() == BatchSketchParser.STATUS_NOT_FOUND) continue;
+                assertEquals(BatchSketchParser.STATUS_OK, line.get("status").getAsInt());
+                libs.addAll(line.getAsJsonObject("settings").getAsJsonObject("libraries").keySet());
+            }
+            assertEquals("[Lib_a_sketch, Lib_b_sketch, Lib_c_sketch, Lib_b_sketch]", libs.toString());
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @Test
+    void drizzleDaemonTest() throws Exception {
+        Path root = Files.createTempDirectory("drizzle-daemon");
+        Path tokenFile = root.resolve(DrizzleDaemon.TOKEN_FILE_NAME);
+        String token = DrizzleDaemon.loadOrCreateToken(tokenFile);
+        assertEquals(token, DrizzleDaemon.loadOrCreateToken(tokenFile));
+        if (tokenFile.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile)));
+        }
+
+        try (DrizzleDaemon daemon = new DrizzleDaemon(0, 60_000, token)) {
+            Path sketch = Files.createDirectories(root.resolve("blink")).resolve("blink.ino");
+            Files.write(sketch, "// @DependsOn Blinker::1.0.0\n".getBytes(StandardCharsets.UTF_8));
+
+            int port = daemon.bind();
+            Thread server = new Thread(() -> {
+                try {
+                    daemon.serve();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            server.start();
+
+            JsonObject request = new JsonObject();
+            request.addProperty("id", 1);
+            request.addProperty("cmd", DrizzleDaemon.CMD_PARSE);
+            request.addProperty("path", sketch.getParent().toString());
+            JsonObject response = DrizzleDaemon.request(port, token, request);
+            assertEquals(1, response.get("id").getAsInt());
+            assertEquals(BatchSketchParser.STATUS_OK, response.get("status").getAsInt());
+
+            ProjectSettings projectSettings = ProjectSettings.fromJSON(response.get("result").toString(), strictLogProxy);
+            assertEquals("1.0.0", projectSettings.getLibraries().get("Blinker").version);
+
+            Path json = root.resolve("blink.json");
+            Files.write(json, ProjectSettings.toJSON(projectSettings).getBytes(StandardCharsets.UTF_8));
+            request.addProperty("cmd", DrizzleDaemon.CMD_REV_PARSE);
+            request.addProperty("path", json.toString());
+            response = DrizzleDaemon.request(port, token, request);
+            assertEquals(projectSettings.toString(), response.get("result").getAsString());
+
+            request.addProperty("path", root.resolve("missing.json").toString());
+            assertEquals(DrizzleDaemon.STATUS_REV_PARSE_ERROR, DrizzleDaemon.request(port, token, request).get("status").getAsInt());
+
+            request.addProperty("cmd", DrizzleDaemon.CMD_SYNC);
+            request.addProperty("path", sketch.getParent().toString());
+            request.addProperty("json", json.toString());
+            response = DrizzleDaemon.request(port, token, request);
+            assertEquals(BatchSketchParser.STATUS_OK, response.get("status").getAsInt());
+            assertTrue(!response.get("result").getAsBoolean());
+
+            request.addProperty("cmd", DrizzleDaemon.CMD_SHUTDOWN);
+            assertEquals(DrizzleDaemon.STATUS_UNAUTHORIZED, DrizzleDaemon.request(port, "wrong", request).get("status").getAsInt());
+
+            // the connection gets closed on the first line that is not JSON, so the POSTed command is never run
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+                socket.setSoTimeout(10_000);
+                String post = "POST / HTTP/1.1\r\nHost: localhost\r\n\r\n" + request + "\n";
+                socket.getOutputStream().write(post.getBytes(StandardCharsets.UTF_8));
+                socket.getOutputStream().flush();
+                assertEquals(-1, socket.getInputStream().read());
+            }
+            assertTrue(server.isAlive());
+
+            assertEquals(BatchSketchParser.STATUS_OK, DrizzleDaemon.request(port, token, request).get("status").getAsInt());
+            server.join(10_000);
+            assertTrue(!server.isAlive());
+            assertEquals(null, DrizzleDaemon.request(port, token, request));
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @Test
+    void markerBlockSyncTest() throws IOException {
+        Path root = Files.createTempDirectory("drizzle-sync");
+        try {
+            String header = "/*\n * Blinks a LED\n *\n";
+            String markers = " * @BoardManager esp8266::^2.6.3::https://arduino.esp8266.com/stable/package_esp8266com_index.json\n"
+                    + " * @Board esp8266::NodeMCU 1.0 (ESP-12E Module)\n"
+                    + " *\n"
+                    + " * @DependsOn Blinker::1.0.0\n";
+            String rest = " */\n\nconst char *s = \"// @DependsOn Fake::1.0.0\";\nvoid setup() { }\n";
+            Path sketch = root.resolve("blink.ino");
+            Files.write(sketch, (header + markers + rest).getBytes(StandardCharsets.UTF_8));
+
+            SourceExtractor sourceExtractor = new SourceExtractor(null, strictLogProxy);
+            ProjectSettings projectSettings = createProjectSettings(sourceExtractor, header + markers + rest);
+            assertEquals(null, MarkerBlockSync.markerBlockEdit(header + markers + rest, projectSettings, sourceExtractor));
+
+            Files.setLastModifiedTime(sketch, FileTime.fromMillis(1_000_000_000_000L));
+            assertTrue(!MarkerBlockSync.syncFile(sketch, projectSettings, sourceExtractor));
+            assertEquals(1_000_000_000_000L, Files.getLastModifiedTime(sketch).toMillis());
+
+            projectSettings.getLibraries().put("Debouncer", new SourceExtractor.DependentLibrary("Debouncer", "^2.0.0"));
+            assertTrue(MarkerBlockSync.syncFile(sketch, projectSettings, sourceExtractor));
+            String synced = new String(Files.readAllBytes(sketch), StandardCharsets.UTF_8);
+            assertEquals(header + markers + " * @DependsOn Debouncer::^2.0.0\n" + rest, synced);
+            assertEquals(projectSettings.toString(), createProjectSettings(sourceExtractor, synced).toString());
+
+            Path bare = root.resolve("bare.ino");
+            Files.write(bare, "void setup() { }\n".getBytes(StandardCharsets.UTF_8));
+            assertTrue(MarkerBlockSync.syncFile(bare, projectSettings, sourceExtractor));
+            String inserted = new String(Files.readAllBytes(bare), StandardCharsets.UTF_8);
+            assertTrue(inserted.startsWith("/*\n * @BoardManager ") && inserted.endsWith(" */\n\nvoid setup() { }\n"));
+            assertEquals(projectSettings.toString(), createProjectSettings(sourceExtractor, inserted).toString());
+
+            // a byte invalid in the charset would shift the offsets of the edit, so such files are left untouched
+            Path latin1 = root.resolve("latin1.ino");
+            byte[] latin1Bytes = ("// caf\u00e9\n" + header + markers + rest).getBytes(StandardCharsets.ISO_8859_1);
+            Files.write(latin1, latin1Bytes);
+            try {
+                MarkerBlockSync.syncFile(latin1, projectSettings, sourceExtractor, StandardCharsets.UTF_8);
+                fail("A sketch with malformed input must not be synced");
+            } catch (IllegalStateException e) {
+                assertTrue(Arrays.equals(latin1Bytes, Files.readAllBytes(latin1)));
+            }
+            assertTrue(MarkerBlockSync.syncFile(latin1, projectSettings, sourceExtractor, StandardCharsets.ISO_8859_1));
+            assertEquals("// caf\u00e9\n" + header + markers + " * @DependsOn Debouncer::^2.0.0\n" + rest,
+                    new String(Files.readAllBytes(latin1), StandardCharsets.ISO_8859_1));
+
+            Path utf8 = root.resolve("utf8.ino");
+            Files.write(utf8, ("// caf\u00e9 \u2615\n" + header + markers + rest).getBytes(StandardCharsets.UTF_8));
+            assertTrue(MarkerBlockSync.syncFile(utf8, projectSettings, sourceExtractor, StandardCharsets.UTF_8));
+            assertEquals("// caf\u00e9 \u2615\n" + header + markers + " * @DependsOn Debouncer::^2.0.0\n" + rest,
+                    new String(Files.readAllBytes(utf8), StandardCharsets.UTF_8));
+
+            // the unsynced markers and the plain text of the comment stay where they were
+            String annotated = "/*\n * Blinks a LED\n *\n * @MarkerSources tabs\n * @HeaderScan 200\n"
+                    + " * @BoardManager esp8266::^2.6.3::https://arduino.esp8266.com/stable/package_esp8266com_index.json\n"
+                    + " * @Board esp8266::NodeMCU 1.0 (ESP-12E Module)\n"
+                    + " *\n"
+                    + " * Libraries used:\n"
+                    + " * @DependsOn Blinker::1.0.0\n" + rest;
+            assertEquals(annotated.replace(" * @DependsOn Blinker::1.0.0\n", " * @DependsOn Blinker::1.0.0\n * @DependsOn Debouncer::^2.0.0\n"),
+                    MarkerBlockSync.markerBlockEdit(annotated, projectSettings, sourceExtractor).applyTo(annotated));
+
+            String interleaved = "// @Board esp8266::NodeMCU 1.0 (ESP-12E Module)\n// @HeaderScan 200\n"
+                    + "// @BoardManager esp8266::^2.6.3::https://arduino.esp8266.com/stable/package_esp8266com_index.json\n"
+                    + "// @DependsOn Blinker::1.0.0\nvoid setup() { }\n";
+            assertEquals("// @BoardManager esp8266::^2.6.3::https://arduino.esp8266.com/stable/package_esp8266com_index.json\n"
+                            + "// @Board esp8266::NodeMCU 1.0 (ESP-12E Module)\n// @HeaderScan 200\n"
+                            + "// @DependsOn Blinker::1.0.0\n// @DependsOn Debouncer::^2.0.0\nvoid setup() { }\n",
+                    MarkerBlockSync.markerBlockEdit(interleaved, projectSettings, sourceExtractor).applyTo(interleaved));
+
+            String scattered ="// @DependsOn Blinker::1.0.0\nvoid setup() { }\n// @DependsOn Other::1.0.0\n";
+            try {
+                MarkerBlockSync.markerBlockEdit(scattered, projectSettings, sourceExtractor);
+                fail("Scattered markers must not be rewritten");
+            } catch (IllegalStateException e) {
+                assertTrue(e.getMessage().contains("line 2"));
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @Test
+    void semverUtilsTest() {
+        assertSame(SemverUtils.parse("1.2.3"), SemverUtils.parse("1.2.3"));
+        assertEquals(null, SemverUtils.tryParse("not-a-version"));
+        try {
+            SemverUtils.parse("not-a-version");
+            fail("Unparsable versions must be reported");
+        } catch (NumberFormatException e) {
+            // expected
+        }
+
+        List<String> candidates = Arrays.asList("1.0", "bad", "0.9.0", "1.1.0-rc.1", "2.0.0");
+        assertEquals("[2.0.0, 1.1.0-rc.1, 1.0, 0.9.0, bad]",
+                candidates.stream().sorted(SemverUtils.NEWEST_FIRST).collect(Collectors.toList()).toString());
+
+        // the candidate is returned as it was given, and not normalized to 1.0.0
+        assertEquals("1.0", SemverUtils.maxSatisfying(candidates, "^1.0.0"));
+        assertSame(SemverUtils.maxSatisfying(candidates, "^1.0.0"), SemverUtils.maxSatisfying(candidates, "^1.0.0"));
+        assertEquals("2.0.0", SemverUtils.maxSatisfying(candidates, "*"));
+        assertEquals(null, SemverUtils.maxSatisfying(candidates, ">=3.0.0"));
+        assertEquals(null, SemverUtils.maxSatisfying(Arrays.asList("bad"), "*"));
+
+        assertTrue(SemverUtils.satisfies("1.0.9", "(>= 1.0.8 && < 1.0.16)"));
+        assertTrue(!SemverUtils.satisfies("1.0.16", "(>= 1.0.8 && < 1.0.16)"));
+        assertTrue(!SemverUtils.satisfies("bad", "*"));
+    }
+
+    private static ContributedLibrary contributedLibrary(String name, String version) {
+        return new ContributedLibrary() {
+            @Override
+            public String getName() { return name; }
+
+            @Override
+            public String getParsedVersion() { return version; }
+        };
+    }
+
+    @Test
+    void libraryCatalogTest() {
+        List<ContributedLibrary> index = Arrays.asList(contributedLibrary("Foo Bar", "1.2.0"),
+                contributedLibrary("Other", "3.0.0"), contributedLibrary("Foo Bar", "1.10.0"),
+                contributedLibrary("Foo Bar", "not-a-version"), contributedLibrary("Foo Bar", "2.0.0-beta"),
+                contributedLibrary("Foo_Exact", "0.1.0"));
+
+        LibraryCatalog catalog = new LibraryCatalog(index);
+        assertTrue(catalog.isBuiltFrom(index));
+
+        List<ContributedLibrary> candidates = catalog.candidatesOf("Foo_Bar");
+        assertEquals("[2.0.0-beta, 1.10.0, 1.2.0, not-a-version]", LibraryCatalog.versionsOf(candidates).toString());
+        assertEquals("[0.1.0]", LibraryCatalog.versionsOf(catalog.candidatesOf("Foo_Exact")).toString());
+        assertTrue(catalog.candidatesOf("Missing").isEmpty());
+
+        assertSame(index.get(2), catalog.pick(candidates, "^1.0.0"));
+        assertSame(index.get(0), catalog.pick(candidates, "~1.2.0"));
+        assertEquals(null, catalog.pick(candidates, ">=3.0.0"));
+    }
+
+    private static ContributedLibrary contributedLibrary(String name, String version, List<String> architectures,
+            String... dependencies) {
+
+        return new ContributedLibrary() {
+            @Override
+            public String getName() { return name; }
+
+            @Override
+            public String getParsedVersion() { return version; }
+
+            @Override
+            public List<String> getArchitectures() { return architectures; }
+
+            @Override
+            public List<ContributedLibraryDependency> getDependencies() {
+                return Arrays.stream(dependencies).map(dep -> new ContributedLibraryDependency() {
+                    @Override
+                    public String getName() { return dep.split("::")[0]; }
+
+                    @Override
+                    public String getVersion() { return dep.contains("::") ? dep.split("::")[1] : null; }
+                }).collect(Collectors.toList());
+            }
+        };
+    }
+
+    @Test
+    void transitiveDependencyResolverTest() {
+        List<String> any = Arrays.asList("*");
+        List<ContributedLibrary> index = Arrays.asList(
+                contributedLibrary("App", "1.0.0", any, "Net::^2.0.0", "Display"),
+                contributedLibrary("Net", "2.1.0", any, "Crypto", "App"),
+                contributedLibrary("Net", "3.0.0", any),
+                contributedLibrary("Crypto", "1.5.0", Arrays.asList("avr")),
+                contributedLibrary("Crypto", "1.4.0", Arrays.asList("esp8266")),
+                contributedLibrary("Display", "1.0.0", any, "Font::>=9.0.0", "Installed"),
+                contributedLibrary("Font", "1.0.0", any));
+
+        TransitiveDependencyResolver.Resolution resolution = new TransitiveDependencyResolver(new LibraryCatalog(index), "esp8266",
+                (name, range) -> "Installed".equals(name)).resolve(Arrays.asList(index.get(0)));
+
+        assertEquals("[App 1.0.0, Net 2.1.0, Crypto 1.4.0, Display 1.0.0]", resolution.getLibraries().stream()
+                .map(lib -> lib.getName() + " " + lib.getParsedVersion()).collect(Collectors.toList()).toString());
+        assertEquals("[Net, Crypto, Display]", resolution.getIntroducedBy().keySet().stream()
+                .map(ContributedLibrary::getName).collect(Collectors.toList()).toString());
+        assertEquals("[Net]", resolution.getIntroducedBy().get(index.get(4)).toString());
+        assertEquals("[Font::>=9.0.0]", resolution.getUnresolved().keySet().toString());
+        assertEquals("[App -> Net -> App]", resolution.getCycles().toString());
+
+        resolution = new TransitiveDependencyResolver(new LibraryCatalog(index), "avr", (name, range) -> false).resolve(
+                new ArrayList<>(), Arrays.asList(new TransitiveDependencyResolver.Dependency("Font", null, "ZipLib"),
+                        new TransitiveDependencyResolver.Dependency("Net", ">=3.0.0", "GitLib")));
+        assertEquals("[Font 1.0.0, Net 3.0.0]", resolution.getLibraries().stream()
+                .map(lib -> lib.getName() + " " + lib.getParsedVersion()).collect(Collectors.toList()).toString());
+        assertEquals("[ZipLib]", resolution.getIntroducedBy().get(index.get(6)).toString());
+    }
+
+    @Test
+    void libraryInstallPlanTest() {
+        List<String> any = Arrays.asList("*");
+        List<ContributedLibrary> chosen = Arrays.asList(contributedLibrary("Net", "2.1.0", any),
+                contributedLibrary("Crypto", "1.4.0", any), contributedLibrary("Display", "1.0.0", any),
+                contributedLibrary("Font", "1.0.0", any));
+
+        Map<String, String> installed = new LinkedHashMap<>();
+        installed.put("Net", "2.1.0");
+        installed.put("Crypto", "1.3.9");
+        installed.put("Font", "1.0");
+
+        LibraryInstallPlan plan = new LibraryInstallPlan(chosen, installed::get);
+        assertEquals("[Net, Font]", plan.getSatisfied().stream().map(ContributedLibrary::getName).collect(Collectors.toList()).toString());
+        assertEquals("[Display]", plan.getToInstall().stream().map(ContributedLibrary::getName).collect(Collectors.toList()).toString());
+        assertEquals("[Crypto]", plan.getToUpgrade().stream().map(ContributedLibrary::getName).collect(Collectors.toList()).toString());
+        assertEquals("[Crypto, Display]", plan.getBatch().stream().map(ContributedLibrary::getName).collect(Collectors.toList()).toString());
+
+        installed.put("Crypto", "1.4.0");
+        installed.put("Display", "1.0.0");
+        assertTrue(new LibraryInstallPlan(chosen, installed::get).isEmpty());
+    }
+
+    @Test
+    void drizzleLockTest() throws IOException {
+        SourceExtractor sourceExtractor = new SourceExtractor(null, strictLogProxy);
+        ProjectSettings projectSettings = createProjectSettings(sourceExtractor, loadWholeTextResource("sample_sketch.ino"));
+        ProjectSettings projectSettings2 = createProjectSettings(sourceExtractor, loadWholeTextResource("sample_sketch2.ino"));
+
+        DrizzleLock lock = new DrizzleLock(projectSettings);
+        lock.setPlatform(new DrizzleLock.Artifact("ESP8266 Boards", "2.5.2", "https://example.com/esp8266-2.5.2.zip",
+                DrizzleLock.sha256OfChecksum("SHA-256:ABCDEF")));
+        lock.getLibraries().add(new DrizzleLock.Artifact("ZipLib", null, "https://example.com/ZipLib.zip", null));
+        lock.getTools().add(new DrizzleLock.Artifact("EspExceptionDecoder", "1.1.0", "https://example.com/tool.zip", null));
+        assertEquals("abcdef", lock.getPlatform().sha256);
+        assertEquals(null, DrizzleLock.sha256OfChecksum("MD5:abcdef"));
+
+        Path dir = Files.createTempDirectory("drizzle-lock");
+        File lockFile = dir.resolve(DrizzleLock.FILE_NAME).toFile();
+        try {
+            assertTrue(lock.write(lockFile));
+            assertTrue(!lock.write(lockFile));
+
+            DrizzleLock read = DrizzleLock.read(lockFile, strictLogProxy);
+            assertEquals(lock.toJSON(), read.toJSON());
+            assertEquals(lock.getPlatform(), read.getPlatform());
+            assertTrue(read.isLockOf(projectSettings));
+            assertTrue(!read.isLockOf(projectSettings2));
+
+            assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+                    DrizzleLock.sha256Of("abc".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(DrizzleLock.sha256Of(Files.readAllBytes(lockFile.toPath())), DrizzleLock.sha256Of(lockFile));
+        } finally {
+            Files.deleteIfExists(lockFile.toPath());
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    void indexFreshnessTest() throws IOException {
+        String[] etag = { "\"v1\"" };
+        AtomicInteger requests = new AtomicInteger();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/package_test_index.json", exchange -> {
+            requests.incrementAndGet();
+            exchange.getResponseHeaders().add("ETag", etag[0]);
+            boolean notModified = etag[0].equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+            exchange.sendResponseHeaders(notModified ? 304 : 200, -1);
+            exchange.close();
+        });
+        server.start();
+
+        Path dir = Files.createTempDirectory("drizzle-index");
+        Path indexFile = dir.resolve("package_test_index.json");
+        Path stateFile = dir.resolve(IndexFreshness.STATE_FILE_NAME);
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/package_test_index.json";
+            Map<String, File> indexes = new LinkedHashMap<>();
+            indexes.put(url, indexFile.toFile());
+
+            IndexFreshness freshness = new IndexFreshness(stateFile.toFile(), strictLogProxy);
+            IndexFreshness.Check check = freshness.check(indexes, 0, false);
+            assertTrue(check.isStale());
+            String hash = freshness.hashOf(indexes.values());
+            Files.write(indexFile, "{}".getBytes(StandardCharsets.UTF_8));
+            assertTrue(!hash.equals(freshness.hashOf(indexes.values())));
+            freshness.record(check);
+
+            // the validators survive a restart
+            freshness = new IndexFreshness(stateFile.toFile(), strictLogProxy);
+            check = freshness.check(indexes, 0, false);
+            assertTrue(!check.isStale());
+            freshness.record(check);
+
+            int requestCount = requests.get();
+            assertTrue(!freshness.check(indexes, 60_000, false).isStale());
+            assertEquals(requestCount, requests.get());
+            assertTrue(freshness.check(indexes, 60_000, true).isStale());
+
+            etag[0] = "\"v2\"";
+            check = freshness.check(indexes, 0, false);
+            assertTrue(check.isStale());
+            freshness.record(check); // no download happened, so the old validators stay
+            assertTrue(freshness.check(indexes, 0, false).isStale());
+
+            assertEquals(freshness.hashOf(indexes.values()), freshness.hashOf(indexes.values()));
+        } finally {
+            server.stop(0);
+            Files.deleteIfExists(indexFile);
+            Files.deleteIfExists(stateFile);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    void artifactCacheTest() throws IOException {
+        Path dir = Files.createTempDirectory("drizzle-cache");
+        try {
+            ArtifactCache<Object> cache = new ArtifactCache<Object>(dir.resolve(ArtifactCache.DIR_NAME).toFile(), strictLogProxy);
+            String zipUrl = "https://example.com/libs/Zip_Lib.zip";
+            String gitUrl = "https://example.com/libs/Git_Lib.git#v1.0.0";
+            assertTrue(!cache.contains(zipUrl));
+            assertNull(cache.restoreZip(zipUrl, "-lib"));
+            assertNull(cache.restoreGit(gitUrl, "v1.0.0", "Git_Lib", "-libgit"));
+
+            Path zip = dir.resolve("download.zip");
+            Files.write(zip, "zip".getBytes(StandardCharsets.UTF_8));
+            cache.storeZip(zipUrl, zip.toFile());
+            Path repo = Files.createDirectories(dir.resolve("download").resolve("src"));
+            Files.write(repo.resolve("lib.h"), "#pragma once".getBytes(StandardCharsets.UTF_8));
+            cache.storeGit(gitUrl, repo.getParent().toFile());
+            cache.storeGit(gitUrl, repo.getParent().toFile()); // replacing the cached one
+
+            assertTrue(cache.contains(zipUrl) && cache.contains(gitUrl));
+            assertTrue(!cache.contains("https://example.com/libs/Git_Lib.git#v2.0.0"));
+
+            File restoredZip = cache.restoreZip(zipUrl, "-lib");
+            assertEquals("zip", new String(Files.readAllBytes(restoredZip.toPath()), StandardCharsets.UTF_8));
+            assertTrue(restoredZip.delete());
+
+            FileUtils.RepoLibDir restoredRepo = cache.restoreGit(gitUrl, "v1.0.0", "Git_Lib", "-libgit");
+            assertEquals("Git_Lib", restoredRepo.dir.getName());
+            assertEquals("#pragma once", new String(Files.readAllBytes(restoredRepo.dir.toPath().resolve("src").resolve("lib.h")),
+                    StandardCharsets.UTF_8));
+            new FileUtils<Object>(strictLogProxy).removeDir(restoredRepo.dir.toPath().getParent());
+
+            // a failed copy leaves nothing behind
+            Path broken = Files.createDirectories(dir.resolve("broken"));
+            try {
+                Files.createSymbolicLink(broken.resolve("dangling.h"), dir.resolve("missing.h"));
+            } catch (UnsupportedOperationException | IOException e) {
+                return; // the links are not supported everywhere
+            }
+            ArtifactCache<Object> quietCache = new ArtifactCache<Object>(cache.getDir(), new LogProxy<Object>() {
+                @Override
+                public PrintStream stderr() { return stdnull(); }
+            });
+            quietCache.storeGit("https://example.com/libs/Broken_Lib.git", broken.toFile());
+            assertTrue(!quietCache.contains("https://example.com/libs/Broken_Lib.git"));
+            try (Stream<Path> cached = Files.list(cache.getDir().toPath().resolve("git"))) {
+                assertEquals(1, cached.count());
+            }
+        } finally {
+            new FileUtils<Object>(strictLogProxy).removeDir(dir);
+        }
+    }
+
+    @Test
+    void externLibDependenciesTest() throws IOException {
+        Path libDir = Files.createTempDirectory("drizzle-extern-lib");
+        try {
+            Files.write(libDir.resolve("library.properties"), ("name=ZipLib\nversion=1.0.0\n"
+                    + "depends=Net (>=2.0.0), Font, https://example.com/libs/Extra_Lib.zip\n").getBytes(StandardCharsets.UTF_8));
+
+            List<SourceExtractor.DependentLibrary> dependencies = new ExternLibFileInstaller<>(strictLogProxy).dependenciesOf(libDir.toFile());
+            assertEquals("[Net >=2.0.0, Font *, Extra_Lib https://example.com/libs/Extra_Lib.zip]", dependencies.stream()
+                    .map(dep -> dep.name + " " + dep.version).collect(Collectors.toList()).toString());
+        } finally {
+            Files.deleteIfExists(libDir.resolve("library.properties"));
+            Files.deleteIfExists(libDir);
+        }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "drizzle.native.binary", matches = ".+")
+    void nativeImageSmokeTest() throws Exception {
+        String binary = System.getProperty("drizzle.native.binary");
+        Path root = Files.createTempDirectory("drizzle-native");
+        try {
+            for (String sketchName : new String[] { "sample_sketch.ino", "sample_sketch2.ino" }) {
+                String source = loadWholeTextResource(sketchName);
+                Path sketch = root.resolve(sketchName);
+                Files.write(sketch, source.getBytes(StandardCharsets.UTF_8));
+
+                SourceExtractor sourceExtractor = new SourceExtractor(null, strictLogProxy);
+                sourceExtractor.setPrimarySketchFile(sketch.toFile());
+                ProjectSettings projectSettings = sourceExtractor.projectSettingsFromMainSketchSource(source);
+                assertEquals(ProjectSettings.toJSON(projectSettings), runProcess(binary, "--parse", sketch.toString()));
+
+                Path json = root.resolve(sketchName + ".json");
+                Files.write(json, ProjectSettings.toJSON(projectSettings).getBytes(StandardCharsets.UTF_8));
+                assertEquals(projectSettings.toString().trim(), runProcess(binary, "--rev-parse", json.toString()));
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static String runProcess(String... command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        String output;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            output = br.lines().collect(Collectors.joining("\n"));
+        }
+        assertEquals(0, process.waitFor(), "Exit code of " + String.join(" ", command));
+        return output;
+    }
+
+    @Test
+    void syntheticCorpusTest() {
+        SketchCorpusGenerator generator = new SketchCorpusGenerator().lines(5000).commentDensity(0.4)
+                .rawStrings(0.05, 300).pathologicalComments(0.05)
+                .markers(SourceExtractor.BOARDMANAGER_MARKER, 1).markers(SourceExtractor.BOARDNAME_MARKER, 1)
+                .markers(SourceExtractor.BOARDSETTINGS_MARKER, 3).markers(SourceExtractor.DEPENDSON_MARKER, 40)
+                .markers(SourceExtractor.PREFERENCES_MARKER, 4).markers(SourceExtractor.ARDUINOTOOL_MARKER, 5);
+        String source = generator.generate();
+        assertEquals(source, generator.generate());
+
+        ProjectSettings projectSettings = new SourceExtractor(null, strictLogProxy).projectSettingsFromMainSketchSource(source);
+        assertEquals("esp8266", projectSettings.getBoardManager().platform);
+        assertEquals("NodeMCU 1.0 (ESP-12E Module)", projectSettings.getBoard().name);
+        assertEquals(3, projectSettings.getBoardSettings().size());
+        assertEquals(40, projectSettings.getLibraries().size());
+        assertTrue(!projectSettings.getLibraries().containsKey("Fake"));
+        assertEquals(4, projectSettings.getPreferences().size());
+        assertEquals(5, projectSettings.getArduinoIdeTools().size());
+
+        SourceExtractor streaming = new SourceExtractor(null, strictLogProxy);
+        streaming.setCommentScannerType(SourceExtractor.CommentScannerType.STREAMING);
+        assertEquals(ProjectSettings.toJSON(projectSettings), ProjectSettings.toJSON(streaming.projectSettingsFromMainSketchSource(source)));
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "drizzle.scaling.test", matches = "true")
+    void parserScalingTest() {
+        SourceExtractor.warmUp();
+        String small = new SketchCorpusGenerator().maxBytes(1 << 20).commentDensity(0.3).rawStrings(0.02, 200)
+                .pathologicalComments(0.02).markers(SourceExtractor.DEPENDSON_MARKER, 20).generate();
+        String large = new SketchCorpusGenerator().maxBytes(10 << 20).commentDensity(0.3).rawStrings(0.02, 200)
+                .pathologicalComments(0.02).markers(SourceExtractor.DEPENDSON_MARKER, 20).generate();
+
+        for (SourceExtractor.CommentScannerType scannerType : SourceExtractor.CommentScannerType.values()) {
+            SourceExtractor sourceExtractor = new SourceExtractor(null, strictLogProxy);
+            sourceExtractor.setCommentScannerType(scannerType);
+            sourceExtractor.projectSettingsFromMainSketchSource(small);
+
+            long[] smallCost = parseCost(sourceExtractor, small);
+            long[] largeCost = parseCost(sourceExtractor, large);
+
+            // linear growth keeps the per-byte costs about the same, while a quadratic one multiplies them by 10
+            double smallNanosPerByte = (double) smallCost[0] / small.length(), largeNanosPerByte = (double) largeCost[0] / large.length();
+            double smallHeapPerByte = (double) smallCost[1] / small.length(), largeHeapPerByte = (double) largeCost[1] / large.length();
+            assertTrue(largeNanosPerByte < 3 * smallNanosPerByte,
+                    String.format("%s: %.1f ns/byte for 10 MB vs %.1f ns/byte for 1 MB", scannerType, largeNanosPerByte, smallNanosPerByte));
+            assertTrue(largeHeapPerByte < 3 * smallHeapPerByte + 1,
+                    String.format("%s: %.1f heap bytes/byte for 10 MB vs %.1f for 1 MB", scannerType, largeHeapPerByte, smallHeapPerByte));
+        }
+    }
+
+    // the best of 2 runs of {elapsed nanos, peak heap growth in bytes}
+    private static long[] parseCost(SourceExtractor sourceExtractor, String source) {
+        long[] result = { Long.MAX_VALUE, Long.MAX_VALUE };
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP).collect(Collectors.toList());
+
+        for (int i = 0; i < 2; ++i) {
+            System.gc();
+            long used = 0;
+            for (MemoryPoolMXBean pool : heapPools) {
+                pool.resetPeakUsage();
+                used += pool.getUsage().getUsed();
+            }
+
+            long start = System.nanoTime();
+            ProjectSettings projectSettings = sourceExtractor.projectSettingsFromMainSketchSource(source);
+            long elapsed = System.nanoTime() - start;
+            assertEquals(20, projectSettings.getLibraries().size());
+
+            long peak = 0;
+            for (MemoryPoolMXBean pool : heapPools) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+
+            result[0] = Math.min(result[0], elapsed);
+            result[1] = Math.min(result[1], Math.max(0, peak - used));
+        }
+        return result;
+    }
+
+    @Test
+    void projectSettingsCacheTest() throws IOException {
+        String source = loadWholeTextResource("sample_sketch.ino");
+        String source2 = loadWholeTextResource("sample_sketch2.ino");
+
+        ProjectSettingsCache cache = new ProjectSettingsCache(1);
+        SourceExtractor sourceExtractor = new SourceExtractor(null, strictLogProxy);
+        sourceExtractor.setProjectSettingsCache(cache);
+
+        ProjectSettings first = sourceExtractor.projectSettingsFromMainSketchSource(source);
+        ProjectSettings cached = sourceExtractor.projectSettingsFromMainSketchSource(source);
+        assertNotSame(first, cached);
+        assertEquals(first.toString(), cached.toString());
+        // the changes of one caller do not leak into the later cache hits
+        cached.getLibraries().put("Leaked", new SourceExtractor.DependentLibrary("Leaked", "1.0.0"));
+        cached.getBoardSettings().get(0).clickableOptions.clear();
+        assertEquals(first.toString(), cache.get(ProjectSettingsCache.keyOf(source, null)).toString());
+        assertEquals(2, cache.getHits());
+        cache = new ProjectSettingsCache(1);
+        sourceExtractor.setProjectSettingsCache(cache);
+        sourceExtractor.projectSettingsFromMainSketchSource(source);
+        sourceExtractor.projectSettingsFromMainSketchSource(source);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        sourceExtractor.projectSettingsFromMainSketchSource(source2);
+        assertNotSame(first, sourceExtractor.projectSettingsFromMainSketchSource(source));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(1, cache.size());
+
+        Path dir = Files.createTempDirectory("drizzle-cache-key");
+        Path json1 = Files.createDirectories(dir.resolve("a")).resolve("drizzle.json");
+        Path json2 = Files.createDirectories(dir.resolve("b")).resolve("drizzle.json");
+        try {
+            Files.write(json1, "{}".getBytes(StandardCharsets.UTF_8));
+            Files.write(json2, "{}".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(json2, Files.getLastModifiedTime(json1));
+            assertTrue(!ProjectSettingsCache.keyOf(source, json1.toFile()).equals(ProjectSettingsCache.keyOf(source, json2.toFile())));
+        } finally {
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    @Test
+    void jsonParserTest() throws IOException {
 
         String json = loadWholeTextResource("sample_sketch_parsed.json");
-        ProjectSettings projSettings = gson.fromJson(json, ProjectSettings.class);
+        ProjectSettings projSettings = ProjectSettings.fromJSON(json, this.strictLogProxy);
         ProjectSettings projSettingsTemplate = createProjectSettings(
                 new SourceExtractor(null, this.strictLogProxy), loadWholeTextResource("sample_sketch.ino"));
 
@@ -140,7 +975,7 @@ class DrizzleParsingTest {
         assertEquals(projSettingsTemplate.getArduinoIdeTools().toString(), projSettings.getArduinoIdeTools().toString());
 
         json = loadWholeTextResource("sample_sketch_parsed2.json");
-        projSettings = gson.fromJson(json, ProjectSettings.class);
+        projSettings = ProjectSettings.fromJSON(json, this.strictLogProxy);
         projSettingsTemplate = createProjectSettings(
                 new SourceExtractor(null, this.strictLogProxy), loadWholeTextResource("sample_sketch2.ino"));
 
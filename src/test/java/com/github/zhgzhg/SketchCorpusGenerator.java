@@ -0,0 +1,156 @@
+package com.github.zhgzhg;
+
+import com.github.zhgzhg.drizzle.utils.source.SourceExtractor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+class SketchCorpusGenerator {
+    private static final String[] PATHOLOGICAL_COMMENTS = {
+            "/* a /* b /* c */",
+            "/**/",
+            "/*/ still a comment */",
+            "/* // not a line comment */",
+            "// /* not a block comment",
+            "/***** stars *****/",
+            "/*\n * multi\n * line /* nested-looking\n */"
+    };
+
+    private long seed = 42;
+    private int lines = 1000;
+    private int maxBytes = 0;
+    private double commentDensity = 0.3;
+    private double rawStringDensity = 0;
+    private int rawStringLength = 256;
+    private double pathologicalDensity = 0;
+    private final Map<String, Integer> markerCounts = new LinkedHashMap<>();
+
+    SketchCorpusGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    SketchCorpusGenerator lines(int lines) {
+        this.lines = lines;
+        return this;
+    }
+
+    // when set, lines are generated until reaching the size, ignoring the line count
+    SketchCorpusGenerator maxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    SketchCorpusGenerator commentDensity(double commentDensity) {
+        this.commentDensity = commentDensity;
+        return this;
+    }
+
+    SketchCorpusGenerator rawStrings(double density, int length) {
+        this.rawStringDensity = density;
+        this.rawStringLength = length;
+        return this;
+    }
+
+    SketchCorpusGenerator pathologicalComments(double density) {
+        this.pathologicalDensity = density;
+        return this;
+    }
+
+    // every marker gets a distinct target, so none of them is a duplicate. only the first @Board and @BoardManager matter
+    SketchCorpusGenerator markers(String marker, int count) {
+        this.markerCounts.put(marker, count);
+        return this;
+    }
+
+    String generate() {
+        Random random = new Random(this.seed);
+
+        List<String> markerLines = new ArrayList<>();
+        this.markerCounts.forEach((marker, count) -> {
+            for (int i = 0; i < count; ++i) {
+                markerLines.add(markerLine(marker, i));
+            }
+        });
+        Collections.shuffle(markerLines, random);
+
+        int expectedLines = (this.maxBytes > 0 ? Math.max(1, this.maxBytes / 40) : this.lines);
+        StringBuilder sb = new StringBuilder(this.maxBytes > 0 ? this.maxBytes + 1024 : this.lines * 48);
+        int markerIndex = 0;
+
+        for (int i = 0; (this.maxBytes > 0 ? sb.length() < this.maxBytes : i < this.lines) || markerIndex < markerLines.size(); ++i) {
+            // markers are spread evenly over the expected line count
+            if (markerIndex < markerLines.size()
+                    && (i >= expectedLines || (long) i * markerLines.size() >= (long) markerIndex * expectedLines)) {
+                String markerLine = markerLines.get(markerIndex++);
+                sb.append(random.nextBoolean() ? "// " + markerLine : "/*\n * " + markerLine + "\n */").append('\n');
+                continue;
+            }
+
+            double dice = random.nextDouble();
+            if (dice < this.pathologicalDensity) {
+                sb.append(PATHOLOGICAL_COMMENTS[random.nextInt(PATHOLOGICAL_COMMENTS.length)]).append('\n');
+            } else if (dice < this.pathologicalDensity + this.rawStringDensity) {
+                sb.append("const char *raw").append(i).append(" = R\"drizzle(").append(rawStringContent(random)).append(")drizzle\";\n");
+            } else if (dice < this.pathologicalDensity + this.rawStringDensity + this.commentDensity) {
+                if (random.nextBoolean()) {
+                    sb.append("  // line ").append(i).append(" explains what the next statement does\n");
+                } else {
+                    sb.append("  /* block ").append(i).append(" with a * and a / inside */\n");
+                }
+            } else {
+                switch (random.nextInt(5)) {
+                    case 0:
+                        sb.append("  Serial.println(\"value /* not a comment */ ").append(i).append("\");\n");
+                        break;
+                    case 1:
+                        sb.append("void function").append(i).append("(int a) {\n");
+                        break;
+                    case 2:
+                        sb.append("}\n");
+                        break;
+                    case 3:
+                        sb.append("  char c").append(i).append(" = '/';\n");
+                        break;
+                    default:
+                        sb.append("  int v").append(i).append(" = analogRead(A0) * ").append(random.nextInt(1000)).append(";\n");
+                }
+            }
+        }
+
+        return sb.toString();
+    }
+
+    private String rawStringContent(Random random) {
+        // comment and marker look-alikes which must be ignored, without ')' which would end the raw string early
+        String[] parts = { "// ", "/* ", "*/ ", SourceExtractor.DEPENDSON_MARKER + " Fake::1.0.0 ", "\"quoted\" ", "text ", "\n" };
+        StringBuilder sb = new StringBuilder(this.rawStringLength + 16);
+        while (sb.length() < this.rawStringLength) {
+            sb.append(parts[random.nextInt(parts.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static String markerLine(String marker, int index) {
+        switch (marker) {
+            case SourceExtractor.DEPENDSON_MARKER:
+                return marker + " Library_" + index + "::^1." + index + ".0";
+            case SourceExtractor.BOARDMANAGER_MARKER:
+                return marker + " esp8266::^2.6.3::https://arduino.esp8266.com/stable/package_esp8266com_index.json";
+            case SourceExtractor.BOARDNAME_MARKER:
+                return marker + " esp8266::NodeMCU 1.0 (ESP-12E Module)";
+            case SourceExtractor.BOARDSETTINGS_MARKER:
+                return marker + " platform_" + index + "::Board " + index + "::Flash Frequency->40MHz||Flash Mode->QIO";
+            case SourceExtractor.PREFERENCES_MARKER:
+                return marker + " package_" + index + "::platform_" + index + "::Board " + index + "::key" + index + "=val" + index;
+            case SourceExtractor.ARDUINOTOOL_MARKER:
+                return marker + " Tool_" + index + "::(<=0." + index + ")::https://example.com/tool" + index + ".zip";
+            default:
+                throw new IllegalArgumentException("Unsupported marker " + marker);
+        }
+    }
+}